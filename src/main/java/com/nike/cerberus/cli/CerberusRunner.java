@@ -31,6 +31,7 @@ import com.nike.cerberus.command.cms.CreateCmsClusterCommand;
 import com.nike.cerberus.command.cms.CreateCmsConfigCommand;
 import com.nike.cerberus.command.cms.UpdateCmsConfigCommand;
 import com.nike.cerberus.command.core.CreateCerberusBackupCommand;
+import com.nike.cerberus.command.core.DeployStacksCommand;
 import com.nike.cerberus.command.core.RollingRebootWithHealthCheckCommand;
 import com.nike.cerberus.command.core.ViewConfigCommand;
 import com.nike.cerberus.command.consul.CreateConsulClusterCommand;
@@ -111,7 +112,8 @@ public class CerberusRunner {
                 cerberusHelp.print();
             } else {
                 Injector injector = Guice.createInjector(new CerberusModule(cerberusCommand.getProxyDelegate(),
-                        cerberusCommand.getEnvironment(), cerberusCommand.getRegion()), new PropsModule());
+                        cerberusCommand.getEnvironment(), cerberusCommand.getRegion(),
+                        cerberusCommand.getEnvironmentConfig()), new PropsModule());
 
                 // fail early if there is any problem in local environment
                 LocalEnvironmentValidator validator = injector.getInstance(LocalEnvironmentValidator.class);
@@ -206,6 +208,7 @@ public class CerberusRunner {
         registerCommand(new RollingRebootWithHealthCheckCommand());
         registerCommand(new CreateCerberusBackupCommand());
         registerCommand(new SetBackupAdminPrincipalsCommand());
+        registerCommand(new DeployStacksCommand());
     }
 
     /**
@@ -22,6 +22,7 @@ import com.nike.cerberus.command.cms.CreateCmsConfigCommand;
 import com.nike.cerberus.command.cms.UpdateCmsConfigCommand;
 import com.nike.cerberus.command.consul.CreateConsulClusterCommand;
 import com.nike.cerberus.command.core.CreateBaseCommand;
+import com.nike.cerberus.command.core.DeployStacksCommand;
 import com.nike.cerberus.command.core.UpdateStackCommand;
 import com.nike.cerberus.command.core.UploadCertFilesCommand;
 import com.nike.cerberus.command.core.WhitelistCidrForVpcAccessCommand;
@@ -31,6 +32,7 @@ import com.nike.cerberus.command.gateway.CreateGatewayClusterCommand;
 import com.nike.cerberus.command.gateway.CreateGatewayConfigCommand;
 import com.nike.cerberus.command.gateway.PublishLambdaCommand;
 import com.nike.cerberus.command.vault.CreateVaultClusterCommand;
+import com.nike.cerberus.domain.environment.StackName;
 import com.nike.cerberus.domain.input.CerberusStack;
 import com.nike.cerberus.domain.input.Consul;
 import com.nike.cerberus.domain.input.Dashboard;
@@ -84,7 +86,11 @@ public class EnvironmentConfigToArgsMapper {
         return args.toArray(new String[args.size()]);
     }
 
-    private static List<String> getArgsForCommand(EnvironmentConfig environmentConfig, String commandName, String[] passedArgs) {
+    /**
+     * Derives the args for a single command from the yaml, the passed args are only consulted for the special
+     * identifiers that the yaml can not supply, like the stack name for update-stack.
+     */
+    public static List<String> getArgsForCommand(EnvironmentConfig environmentConfig, String commandName, String[] passedArgs) {
         switch (commandName) {
             case CreateBaseCommand.COMMAND_NAME:
                 return getCreateBaseCommandArgs(environmentConfig);
@@ -114,6 +120,8 @@ public class EnvironmentConfigToArgsMapper {
                 return getCreateCloudFrontLogProcessingLambdaConfigCommandArgs(environmentConfig);
             case UpdateCmsConfigCommand.COMMAND_NAME:
                 return getCreateCmsConfigCommandArgs(environmentConfig);
+            case DeployStacksCommand.COMMAND_NAME:
+                return getDeployStacksCommandArgs(passedArgs);
             default:
                 return new LinkedList<>();
         }
@@ -298,6 +306,10 @@ public class EnvironmentConfigToArgsMapper {
             args.add(stack.getMaxInstances());
         }
 
+        addTagArgs(environmentConfig, args);
+    }
+
+    private static void addTagArgs(EnvironmentConfig environmentConfig, List<String> args) {
         args.add(StackDelegate.COST_CENTER_LONG_ARG);
         args.add(environmentConfig.getCostCenter());
         args.add(StackDelegate.OWNER_EMAIL_LONG_ARG);
@@ -390,6 +402,9 @@ public class EnvironmentConfigToArgsMapper {
 
         if (cerberusStack != null) {
             addCommonStackArgs(environmentConfig, args, cerberusStack);
+        } else if (StringUtils.equals(stackName, StackName.BASE.getName())) {
+            // the base stack has no launch config, only its tags are sourced from the yaml
+            addTagArgs(environmentConfig, args);
         }
 
         for (int i = 0; i < passedArgs.length; i++) {
@@ -397,6 +412,9 @@ public class EnvironmentConfigToArgsMapper {
             if (arg.equals(UpdateStackCommand.OVERWRITE_TEMPLATE_LONG_ARG)) {
                 args.add(UpdateStackCommand.OVERWRITE_TEMPLATE_LONG_ARG);
             }
+            if (arg.equals(UpdateStackCommand.PREVIEW_CHANGES_LONG_ARG)) {
+                args.add(UpdateStackCommand.PREVIEW_CHANGES_LONG_ARG);
+            }
             if (arg.equals(UpdateStackCommand.PARAMETER_SHORT_ARG) && i < passedArgs.length -1) {
                 args.add(UpdateStackCommand.PARAMETER_SHORT_ARG);
                 args.add(passedArgs[i+1]);
@@ -406,6 +424,22 @@ public class EnvironmentConfigToArgsMapper {
         return args;
     }
 
+    private static List<String> getDeployStacksCommandArgs(String[] passedArgs) {
+        List<String> args = new LinkedList<>();
+
+        // the stacks themselves are sourced from the yaml by the command, so its own args are kept as passed
+        boolean isCommandArg = false;
+        for (String arg : passedArgs) {
+            if (isCommandArg) {
+                args.add(arg);
+            } else if (arg.equals(DeployStacksCommand.COMMAND_NAME)) {
+                isCommandArg = true;
+            }
+        }
+
+        return args;
+    }
+
     private static String getStackName(String[] passedArgs) {
         for (int i = 0; i < passedArgs.length; i++) {
             if (StringUtils.equals(passedArgs[i], STACK_NAME_KEY)) {
@@ -19,6 +19,7 @@ package com.nike.cerberus.command.core;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.Parameters;
 import com.nike.cerberus.command.Command;
+import com.nike.cerberus.domain.backup.BackupCompression;
 import com.nike.cerberus.operation.Operation;
 import com.nike.cerberus.operation.core.CreateCerberusBackupOperation;
 
@@ -42,6 +43,26 @@ public class CreateCerberusBackupCommand implements Command {
     public static final String BACKUP_REGIONS_LONG_ARG = "--backup-region";
     public static final String BACKUP_REGIONS_SHORT_ARG = "-br";
 
+    public static final String PARALLELISM_LONG_ARG = "--parallelism";
+    public static final String PARALLELISM_SHORT_ARG = "-p";
+
+    public static final String VAULT_CONCURRENCY_LONG_ARG = "--vault-concurrency";
+    public static final String VAULT_CONCURRENCY_SHORT_ARG = "-vc";
+
+    public static final String SERIALIZE_THREADS_LONG_ARG = "--serialize-threads";
+
+    public static final String UPLOAD_THREADS_LONG_ARG = "--upload-threads";
+
+    public static final String QUEUE_SIZE_LONG_ARG = "--queue-size";
+
+    public static final String INCREMENTAL_LONG_ARG = "--incremental";
+
+    public static final String COMPRESSION_LONG_ARG = "--compression";
+
+    public static final String SEGMENT_SIZE_LONG_ARG = "--segment-size-mb";
+
+    public static final String RESUME_LONG_ARG = "--resume";
+
     @Parameter(
             names = {
                     BACKUP_REGIONS_LONG_ARG,
@@ -52,10 +73,114 @@ public class CreateCerberusBackupCommand implements Command {
     )
     private List<String> backupRegions = new ArrayList<>();
 
+    @Parameter(
+            names = {
+                    PARALLELISM_LONG_ARG,
+                    PARALLELISM_SHORT_ARG
+            },
+            description = "The number of SDBs to read from Vault concurrently."
+    )
+    private int parallelism = 1;
+
+    @Parameter(
+            names = {
+                    VAULT_CONCURRENCY_LONG_ARG,
+                    VAULT_CONCURRENCY_SHORT_ARG
+            },
+            description = "The maximum number of in-flight Vault requests used to walk SDB secret trees, " +
+                    "defaults to the parallelism."
+    )
+    private Integer vaultConcurrency;
+
+    @Parameter(
+            names = SERIALIZE_THREADS_LONG_ARG,
+            description = "The number of threads serializing SDB backups to json."
+    )
+    private int serializeThreads = 1;
+
+    @Parameter(
+            names = UPLOAD_THREADS_LONG_ARG,
+            description = "The number of threads uploading SDB backups to S3, defaults to the parallelism."
+    )
+    private Integer uploadThreads;
+
+    @Parameter(
+            names = QUEUE_SIZE_LONG_ARG,
+            description = "The number of SDBs that can wait between backup stages before the earlier stage is " +
+                    "blocked, this bounds how much backup data is held in memory."
+    )
+    private int queueSize = 10;
+
+    @Parameter(
+            names = INCREMENTAL_LONG_ARG,
+            description = "Only upload SDBs that have changed since the last backup, unchanged SDBs are recorded in " +
+                    "the backup metadata as references to the earlier backup. Backups that are referenced by later " +
+                    "backups must not be deleted."
+    )
+    private boolean incremental;
+
+    @Parameter(
+            names = COMPRESSION_LONG_ARG,
+            description = "The codec to compress the SDB backups with before they are encrypted, one of NONE, GZIP " +
+                    "or LZ4. GZIP gives the smallest backups, LZ4 compresses faster but gives larger backups."
+    )
+    private BackupCompression compression = BackupCompression.NONE;
+
+    @Parameter(
+            names = SEGMENT_SIZE_LONG_ARG,
+            description = "Pack the SDB backups into segment objects of about this many MB, with the offset of each " +
+                    "SDB recorded in the backup metadata, instead of storing every SDB as its own object. " +
+                    "0 stores one object per SDB."
+    )
+    private int segmentSizeMb = 0;
+
+    @Parameter(
+            names = RESUME_LONG_ARG,
+            description = "The prefix of a failed backup to resume, the SDBs recorded in its journal as stored are " +
+                    "skipped and the rest are backed up under the same prefix."
+    )
+    private String resumePrefix;
+
     public List<String> getBackupRegions() {
         return backupRegions;
     }
 
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public int getVaultConcurrency() {
+        return vaultConcurrency == null ? parallelism : vaultConcurrency;
+    }
+
+    public int getSerializeThreads() {
+        return serializeThreads;
+    }
+
+    public int getUploadThreads() {
+        return uploadThreads == null ? parallelism : uploadThreads;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    public BackupCompression getCompression() {
+        return compression;
+    }
+
+    public int getSegmentSizeMb() {
+        return segmentSizeMb;
+    }
+
+    public String getResumePrefix() {
+        return resumePrefix;
+    }
+
     @Override
     public String getCommandName() {
         return COMMAND_NAME;
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.command.core;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import com.nike.cerberus.command.Command;
+import com.nike.cerberus.operation.Operation;
+import com.nike.cerberus.operation.core.DeployStacksOperation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.nike.cerberus.ConfigConstants.SKIP_AMI_TAG_CHECK_ARG;
+import static com.nike.cerberus.ConfigConstants.SKIP_AMI_TAG_CHECK_DESCRIPTION;
+import static com.nike.cerberus.command.core.DeployStacksCommand.COMMAND_NAME;
+
+/**
+ * Composite command that creates or updates the stacks defined in the environment yaml.
+ */
+@Parameters(commandNames = COMMAND_NAME,
+        commandDescription = "Creates the stacks in the environment yaml that do not exist yet and updates the rest, " +
+                "stacks that do not depend on each other are deployed in parallel. Requires --file.")
+public class DeployStacksCommand implements Command {
+
+    public static final String COMMAND_NAME = "deploy-stacks";
+    public static final String STACK_NAME_LONG_ARG = "--stack-name";
+
+    @Parameter(names = STACK_NAME_LONG_ARG,
+            description = "A stack to deploy, can be supplied more than once. Defaults to base, consul, vault, cms and gateway.")
+    private List<String> stackNames = new ArrayList<>();
+
+    @Parameter(names = UpdateStackCommand.OVERWRITE_TEMPLATE_LONG_ARG,
+            description = "Flag for overwriting the existing CloudFormation template of the stacks that are updated")
+    private boolean overwriteTemplate;
+
+    @Parameter(names = SKIP_AMI_TAG_CHECK_ARG,
+            description = SKIP_AMI_TAG_CHECK_DESCRIPTION)
+    private boolean skipAmiTagCheck;
+
+    public List<String> getStackNames() {
+        return stackNames;
+    }
+
+    public boolean isOverwriteTemplate() {
+        return overwriteTemplate;
+    }
+
+    public boolean isSkipAmiTagCheck() {
+        return skipAmiTagCheck;
+    }
+
+    @Override
+    public String getCommandName() {
+        return COMMAND_NAME;
+    }
+
+    @Override
+    public Class<? extends Operation<?>> getOperationClass() {
+        return DeployStacksOperation.class;
+    }
+}
@@ -60,6 +60,18 @@ public class RestoreCerberusBackupCommand implements Command {
     )
     private String cerberusUrl;
 
+    @Parameter(names = "--parallelism",
+            description = "The number of SDBs to restore concurrently, each SDB's metadata, secret deletes and " +
+                    "secret writes are still applied in order"
+    )
+    private int parallelism = 1;
+
+    @Parameter(names = "--diff",
+            description = "Compare each SDB with the secrets currently in Vault and only write the secrets that " +
+                    "changed and delete the ones not in the backup, instead of deleting and rewriting every secret"
+    )
+    private boolean diff;
+
     public String getS3Region() {
         return s3Region;
     }
@@ -76,6 +88,14 @@ public class RestoreCerberusBackupCommand implements Command {
         return cerberusUrl;
     }
 
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public boolean isDiff() {
+        return diff;
+    }
+
     @Override
     public String getCommandName() {
         return COMMAND_NAME;
@@ -21,13 +21,39 @@ public class RollingRebootWithHealthCheckCommand implements Command {
 
     public static final String COMMAND_NAME = "rolling-reboot";
 
+    public static final String BATCH_SIZE_LONG_ARG = "--batch-size";
+
+    public static final String MAX_UNAVAILABLE_LONG_ARG = "--max-unavailable";
+
     @Parameter(names = {"--stack-name"}, required = true, description = "The stack name to reboot.")
     private StackName stackName = StackName.CMS;
 
+    @Parameter(
+            names = BATCH_SIZE_LONG_ARG,
+            description = "The number of instances to reboot at the same time. Instances rebooted together are " +
+                    "always in different availability zones, so batches are no bigger than the number of zones."
+    )
+    private int batchSize = 1;
+
+    @Parameter(
+            names = MAX_UNAVAILABLE_LONG_ARG,
+            description = "The maximum number of instances that can be unavailable at once, counting the batch being " +
+                    "rebooted and any instance that is failing its health check. Defaults to the batch size."
+    )
+    private Integer maxUnavailable;
+
     public StackName getStackName() {
         return stackName;
     }
 
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public int getMaxUnavailable() {
+        return maxUnavailable == null ? batchSize : maxUnavailable;
+    }
+
     @Override
     public String getCommandName() {
         return COMMAND_NAME;
@@ -42,6 +42,7 @@ public class UpdateStackCommand implements Command {
     public static final String COMMAND_NAME = "update-stack";
     public static final String OVERWRITE_TEMPLATE_LONG_ARG = "--overwrite-template";
     public static final String PARAMETER_SHORT_ARG = "-P";
+    public static final String PREVIEW_CHANGES_LONG_ARG = "--preview-changes";
 
     @Parameter(names = {"--stack-name"}, required = true, description = "The stack name to update.")
     private StackName stackName;
@@ -72,6 +73,10 @@ public class UpdateStackCommand implements Command {
             description = "Flag for overwriting existing CloudFormation template")
     private boolean overwriteTemplate;
 
+    @Parameter(names = PREVIEW_CHANGES_LONG_ARG,
+            description = "Flag for logging the resource changes of the update, from a CloudFormation change set, and asking for confirmation before the update is applied")
+    private boolean previewChanges;
+
     @Parameter(names = StackDelegate.DESIRED_INSTANCES_LONG_ARG, description = "Desired number of auto scaling instances.")
     private Integer desiredInstances;
 
@@ -120,6 +125,10 @@ public class UpdateStackCommand implements Command {
         return overwriteTemplate;
     }
 
+    public boolean isPreviewChanges() {
+        return previewChanges;
+    }
+
     public Map<String, String> getDynamicParameters() {
         return dynamicParameters;
     }
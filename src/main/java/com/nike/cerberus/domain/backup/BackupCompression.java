@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.domain.backup;
+
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Codecs that SDB backup json can be compressed with before it is encrypted and stored in S3.
+ */
+public enum BackupCompression {
+    NONE {
+        @Override
+        public byte[] compress(byte[] content) {
+            return content;
+        }
+
+        @Override
+        public byte[] decompress(byte[] content) {
+            return content;
+        }
+
+        @Override
+        protected OutputStream wrap(OutputStream out) {
+            return out;
+        }
+
+        @Override
+        protected InputStream wrap(InputStream in) {
+            return in;
+        }
+    },
+    GZIP {
+        @Override
+        protected OutputStream wrap(OutputStream out) throws IOException {
+            return new GZIPOutputStream(out);
+        }
+
+        @Override
+        protected InputStream wrap(InputStream in) throws IOException {
+            return new GZIPInputStream(in);
+        }
+    },
+    LZ4 {
+        @Override
+        protected OutputStream wrap(OutputStream out) throws IOException {
+            // SDB backups are small, the default 4MB blocks would allocate far more than the json needs
+            return new LZ4FrameOutputStream(out, LZ4FrameOutputStream.BLOCKSIZE.SIZE_64KB);
+        }
+
+        @Override
+        protected InputStream wrap(InputStream in) throws IOException {
+            return new LZ4FrameInputStream(in);
+        }
+    };
+
+    public byte[] compress(byte[] content) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 4);
+        try (OutputStream out = wrap(compressed)) {
+            out.write(content);
+        } catch (IOException e) {
+            throw new RuntimeException(String.format("Failed to compress backup with codec: %s", name()), e);
+        }
+        return compressed.toByteArray();
+    }
+
+    public byte[] decompress(byte[] content) {
+        try (InputStream in = wrap(new ByteArrayInputStream(content))) {
+            return IOUtils.toByteArray(in);
+        } catch (IOException e) {
+            throw new RuntimeException(String.format("Failed to decompress backup with codec: %s", name()), e);
+        }
+    }
+
+    /**
+     * Wraps the compressed content so it is decompressed as it is read.
+     */
+    public InputStream decompress(InputStream content) throws IOException {
+        return wrap(content);
+    }
+
+    protected abstract OutputStream wrap(OutputStream out) throws IOException;
+
+    protected abstract InputStream wrap(InputStream in) throws IOException;
+
+    /**
+     * Backups taken before compression was supported have no codec recorded, and are stored uncompressed.
+     */
+    public static BackupCompression fromName(final String name) {
+        if (name == null) {
+            return NONE;
+        }
+
+        for (BackupCompression compression : BackupCompression.values()) {
+            if (compression.name().equalsIgnoreCase(name)) {
+                return compression;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown backup compression: " + name);
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.domain.backup;
+
+import java.util.Map;
+
+/**
+ * Progress of a backup that is checkpointed under the backup prefix while the backup runs, so that a backup that
+ * fails can be resumed without backing up the SDBs it already stored again.
+ */
+public class CerberusBackupJournal {
+
+    private Map<String, SdbBackupEntry> sdbBackups;
+    private Map<String, CerberusSdbMetadata> sdbMetadata;
+
+    /**
+     * @return The manifest entries of the SDBs that have been stored in every backup region
+     */
+    public Map<String, SdbBackupEntry> getSdbBackups() {
+        return sdbBackups;
+    }
+
+    public CerberusBackupJournal setSdbBackups(Map<String, SdbBackupEntry> sdbBackups) {
+        this.sdbBackups = sdbBackups;
+        return this;
+    }
+
+    /**
+     * @return The metadata of each stored SDB, needed to build the backup metadata without reading the SDBs again
+     */
+    public Map<String, CerberusSdbMetadata> getSdbMetadata() {
+        return sdbMetadata;
+    }
+
+    public CerberusBackupJournal setSdbMetadata(Map<String, CerberusSdbMetadata> sdbMetadata) {
+        this.sdbMetadata = sdbMetadata;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "CerberusBackupJournal{" +
+                "sdbBackups=" + sdbBackups +
+                ", sdbMetadata=" + sdbMetadata +
+                '}';
+    }
+}
@@ -19,6 +19,7 @@ package com.nike.cerberus.domain.backup;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
 import java.util.Date;
+import java.util.Map;
 
 /**
  * Simple pojo for wrapping Cerberus backup metadata.
@@ -33,6 +34,8 @@ public class CerberusBackupMetadata {
     private Integer numberOfUniqueOwnerGroups;
     private Integer numberOfUniqueIamRoles;
     private Integer numberOfUniqueNonOwnerGroups;
+    private Map<String, SdbBackupEntry> sdbBackups;
+    private BackupCompression compression;
 
     public String getCerberusUrl() {
         return cerberusUrl;
@@ -108,6 +111,28 @@ public class CerberusBackupMetadata {
         return this;
     }
 
+    /**
+     * @return Manifest of SDB backup keys to where they are stored, null for backups created before the manifest
+     * was added
+     */
+    public Map<String, SdbBackupEntry> getSdbBackups() {
+        return sdbBackups;
+    }
+
+    public CerberusBackupMetadata setSdbBackups(Map<String, SdbBackupEntry> sdbBackups) {
+        this.sdbBackups = sdbBackups;
+        return this;
+    }
+
+    public BackupCompression getCompression() {
+        return compression;
+    }
+
+    public CerberusBackupMetadata setCompression(BackupCompression compression) {
+        this.compression = compression;
+        return this;
+    }
+
     @Override
     public String toString() {
         return "CerberusBackupMetadata{" +
@@ -119,6 +144,8 @@ public class CerberusBackupMetadata {
                 ", numberOfUniqueOwnerGroups=" + numberOfUniqueOwnerGroups +
                 ", numberOfUniqueIamRoles=" + numberOfUniqueIamRoles +
                 ", numberOfUniqueNonOwnerGroups=" + numberOfUniqueNonOwnerGroups +
+                ", sdbBackups=" + sdbBackups +
+                ", compression=" + compression +
                 '}';
     }
 }
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.domain.backup;
+
+/**
+ * Manifest entry for a single SDB in a backup, records where the SDB's backup json is stored and a hash of its content.
+ */
+public class SdbBackupEntry {
+
+    private String hash;
+    private String prefix;
+    private BackupCompression compression = BackupCompression.NONE;
+    private String segment;
+    private Long offset;
+    private Long length;
+
+    public SdbBackupEntry() {
+    }
+
+    public SdbBackupEntry(String hash, String prefix, BackupCompression compression) {
+        this.hash = hash;
+        this.prefix = prefix;
+        this.compression = compression;
+    }
+
+    /**
+     * @return Hex encoded SHA-256 of the serialized SDB backup
+     */
+    public String getHash() {
+        return hash;
+    }
+
+    public SdbBackupEntry setHash(String hash) {
+        this.hash = hash;
+        return this;
+    }
+
+    /**
+     * @return The backup prefix that holds the SDB's json, for unchanged SDBs in an incremental backup this is the
+     * prefix of an earlier backup
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public SdbBackupEntry setPrefix(String prefix) {
+        this.prefix = prefix;
+        return this;
+    }
+
+    /**
+     * @return The codec the SDB's json was compressed with, entries written before compression was supported are
+     * uncompressed
+     */
+    public BackupCompression getCompression() {
+        return compression;
+    }
+
+    public SdbBackupEntry setCompression(BackupCompression compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    /**
+     * @return The key of the segment under the prefix that the SDB's json was packed into, or null when the SDB was
+     * stored as its own object
+     */
+    public String getSegment() {
+        return segment;
+    }
+
+    public SdbBackupEntry setSegment(String segment) {
+        this.segment = segment;
+        return this;
+    }
+
+    /**
+     * @return The byte offset of the SDB's json in the segment
+     */
+    public Long getOffset() {
+        return offset;
+    }
+
+    public SdbBackupEntry setOffset(Long offset) {
+        this.offset = offset;
+        return this;
+    }
+
+    /**
+     * @return The number of bytes of the SDB's json in the segment
+     */
+    public Long getLength() {
+        return length;
+    }
+
+    public SdbBackupEntry setLength(Long length) {
+        this.length = length;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "SdbBackupEntry{" +
+                "hash='" + hash + '\'' +
+                ", prefix='" + prefix + '\'' +
+                ", compression=" + compression +
+                ", segment='" + segment + '\'' +
+                ", offset=" + offset +
+                ", length=" + length +
+                '}';
+    }
+}
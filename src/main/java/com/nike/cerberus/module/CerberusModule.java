@@ -57,6 +57,7 @@ import com.google.inject.Provides;
 import com.nike.cerberus.ConfigConstants;
 import com.nike.cerberus.command.ProxyDelegate;
 import com.nike.cerberus.domain.EnvironmentMetadata;
+import com.nike.cerberus.domain.input.EnvironmentConfig;
 import com.nike.cerberus.util.TokenSupplier;
 import com.nike.cerberus.util.UuidSupplier;
 import org.apache.commons.lang3.StringUtils;
@@ -92,10 +93,14 @@ public class CerberusModule extends AbstractModule {
 
     private final String regionName;
 
-    public CerberusModule(ProxyDelegate proxyDelegate, String environmentName, String regionName) {
+    private final EnvironmentConfig environmentConfig;
+
+    public CerberusModule(ProxyDelegate proxyDelegate, String environmentName, String regionName,
+                          EnvironmentConfig environmentConfig) {
         this.proxyDelegate = proxyDelegate;
         this.environmentName = environmentName;
         this.regionName = regionName;
+        this.environmentConfig = environmentConfig;
     }
 
     /**
@@ -170,6 +175,17 @@ public class CerberusModule extends AbstractModule {
         return environmentMetadata;
     }
 
+    /**
+     * The environment yaml supplied with --file, if there was one.
+     *
+     * @return Environment config
+     */
+    @Provides
+    @Singleton
+    public Optional<EnvironmentConfig> environmentConfig() {
+        return Optional.ofNullable(environmentConfig);
+    }
+
     @Provides
     @Singleton
     public MustacheFactory mustacheFactory() {
@@ -128,9 +128,11 @@ public class CreateBaseOperation implements Operation<CreateBaseCommand> {
             configStore.initEnvironmentData();
 
             // 3. Write the first configuration values to the config bucket.
-            configStore.storeAzs(azByIdentifier.get(1), azByIdentifier.get(2), azByIdentifier.get(3));
-            configStore.storeStackId(StackName.BASE, stackId);
-            configStore.storeConfigKeyId(outputParameters.getConfigFileKeyId());
+            configStore.updateEnvironment(environment -> {
+                ConfigStore.storeAzs(environment, azByIdentifier.get(1), azByIdentifier.get(2), azByIdentifier.get(3));
+                environment.getStackMap().put(StackName.BASE, stackId);
+                ConfigStore.storeConfigKeyId(environment, outputParameters.getConfigFileKeyId());
+            });
 
             // 4. Initialize the secrets config.
             configStore.initSecretsData();
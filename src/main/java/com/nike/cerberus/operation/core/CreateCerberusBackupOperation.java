@@ -42,19 +42,25 @@ import com.fasterxml.jackson.databind.PropertyNamingStrategy;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.util.ISO8601DateFormat;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.nike.cerberus.client.CerberusAdminClient;
 import com.nike.cerberus.client.CerberusAdminClientFactory;
 import com.nike.cerberus.command.core.SetBackupAdminPrincipalsCommand;
 import com.nike.cerberus.domain.cms.SafeDepositBox;
 import com.nike.cerberus.command.core.CreateCerberusBackupCommand;
 import com.nike.cerberus.domain.EnvironmentMetadata;
+import com.nike.cerberus.domain.backup.BackupCompression;
+import com.nike.cerberus.domain.backup.CerberusBackupJournal;
 import com.nike.cerberus.domain.backup.CerberusBackupMetadata;
 import com.nike.cerberus.domain.backup.CerberusSdbMetadata;
+import com.nike.cerberus.domain.backup.SdbBackupEntry;
 import com.nike.cerberus.domain.environment.BackupRegionInfo;
 import com.nike.cerberus.operation.Operation;
 import com.nike.cerberus.service.MetricsService;
 import com.nike.cerberus.service.S3StoreService;
 import com.nike.cerberus.store.ConfigStore;
+import com.nike.cerberus.util.PipelineStage;
 import com.nike.vault.client.model.VaultListResponse;
 import com.nike.vault.client.model.VaultResponse;
 import org.apache.commons.lang3.StringUtils;
@@ -62,14 +68,32 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import static com.nike.cerberus.module.CerberusModule.getAWSCredentialsProviderChain;
 
@@ -80,6 +104,13 @@ public class CreateCerberusBackupOperation implements Operation<CreateCerberusBa
 
     private static final String AWS_PROVIDER = "AWS";
     private static final int MAX_BUCKET_NAME_LENGTH = 63;
+    private static final long PROGRESS_REPORT_INTERVAL_SECONDS = 10;
+    private static final String BACKUP_METADATA_KEY = "cerberus-backup-metadata.json";
+    private static final String BACKUP_JOURNAL_KEY = "cerberus-backup-journal.json";
+    private static final long JOURNAL_CHECKPOINT_INTERVAL_SECONDS = 30;
+    private static final String SEGMENT_KEY_PREFIX = "segment-";
+    private static final String SEGMENT_KEY_FORMAT = SEGMENT_KEY_PREFIX + "%05d";
+    private static final long BYTES_PER_MB = 1024 * 1024;
 
     private final ObjectMapper objectMapper;
     private final ConfigStore configStore;
@@ -102,6 +133,8 @@ public class CreateCerberusBackupOperation implements Operation<CreateCerberusBa
         objectMapper.disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
         objectMapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
         objectMapper.enable(SerializationFeature.WRITE_EMPTY_JSON_ARRAYS);
+        // sorted keys give a canonical serialization, so unchanged SDBs hash the same between backups
+        objectMapper.enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
         objectMapper.setDateFormat(new ISO8601DateFormat());
 
         this.configStore = configStore;
@@ -120,7 +153,8 @@ public class CreateCerberusBackupOperation implements Operation<CreateCerberusBa
         validateRegions(regionsToStoreBackups);
 
         Date now = new Date();
-        String prefix = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss").format(now);
+        boolean resume = command.getResumePrefix() != null;
+        String prefix = resume ? command.getResumePrefix() : new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss").format(now);
         List<SafeDepositBox> sdbMetadataList = cerberusAdminClient.getAllSdbMetadata();
 
         int sdbCount = sdbMetadataList.size();
@@ -129,35 +163,64 @@ public class CreateCerberusBackupOperation implements Operation<CreateCerberusBa
         } else {
             log.info(String.format("CMS returned that there are %s SDBs to back up.", sdbMetadataList.size()));
         }
+        validateSdbKeys(sdbMetadataList);
+
+        // resolve the encrypted store services up front, so that the backup workers only ever read from the map
+        regionsToStoreBackups.forEach(region ->
+                regionToEncryptedStoreServiceMap.put(region, getEncryptedStoreServiceForRegion(region)));
+
+        // every upload is fanned out to all of the regions at once, so the pool is sized for each uploader thread
+        // to have a put in flight for every region
+        ExecutorService regionUploadExecutor = Executors.newFixedThreadPool(
+                command.getUploadThreads() * regionsToStoreBackups.size(),
+                new ThreadFactoryBuilder().setNameFormat("region-upload-%d").setDaemon(true).build());
+        Map<String, SdbBackupEntry> previousManifest = command.isIncremental() ?
+                getPreviousManifest(prefix, regionsToStoreBackups) : Collections.emptyMap();
+        CerberusBackupJournal journal = resume ?
+                getJournalToResume(prefix, regionsToStoreBackups, sdbMetadataList) :
+                new CerberusBackupJournal()
+                        .setSdbBackups(new ConcurrentHashMap<>())
+                        .setSdbMetadata(new ConcurrentHashMap<>());
+        Map<String, SdbBackupEntry> manifest = journal.getSdbBackups();
+        List<SafeDepositBox> sdbsToBackUp = sdbMetadataList.stream()
+                .filter(sdb -> ! manifest.containsKey(getSdbKey(sdb)))
+                .collect(Collectors.toList());
+
+        CerberusBackupMetadata metadata;
+        try {
+            backupSdbs(sdbsToBackUp, prefix, regionsToStoreBackups, previousManifest, journal, command,
+                    regionUploadExecutor);
 
-        CerberusSdbMetadata cerberusSdbMetadata = new CerberusSdbMetadata();
-        for (SafeDepositBox sdb : sdbMetadataList) {
-            log.info(String.format("Backing up %s", sdb.getName()));
-            Map<String, Map<String, Object>> vaultData = recurseVault(sdb.getPath(), new HashMap<>());
-            sdb.setData(vaultData);
-            String key = sdb.getName().toLowerCase().replaceAll("\\W+", "-");
-            saveDataToS3(sdb, prefix, key, regionsToStoreBackups);
-            cerberusSdbMetadata = processMetadata(sdb, cerberusSdbMetadata);
-        }
-
-        // save metadata
-        CerberusBackupMetadata metadata = new CerberusBackupMetadata()
-                .setCerberusUrl(configStore.getCerberusBaseUrl())
-                .setBackupDate(now)
-                .setNumberOfSdbs(sdbMetadataList.size())
-                .setNumberOfDataNodes(cerberusSdbMetadata.getNumberOfDataNodes())
-                .setNumberOfKeyValuePairs(cerberusSdbMetadata.getNumberOfKeyValuePairs())
-                .setNumberOfUniqueOwnerGroups(cerberusSdbMetadata.getUniqueOwnerGroups().size())
-                .setNumberOfUniqueIamRoles(cerberusSdbMetadata.getUniqueIamRoles().size())
-                .setNumberOfUniqueNonOwnerGroups(cerberusSdbMetadata.getUniqueNonOwnerGroups().size());
-
-        if (metadata.getNumberOfKeyValuePairs() < 1) {
-            throw new RuntimeException("The number of backed up key value pairs was less than 1, this probably means something bad is going on");
-        }
+            CerberusSdbMetadata cerberusSdbMetadata = new CerberusSdbMetadata();
+            for (CerberusSdbMetadata sdbMetadata : journal.getSdbMetadata().values()) {
+                cerberusSdbMetadata = mergeMetadata(cerberusSdbMetadata, sdbMetadata);
+            }
 
-        String key = "cerberus-backup-metadata.json";
+            long unchangedSdbs = manifest.values().stream().filter(entry -> ! prefix.equals(entry.getPrefix())).count();
+            log.info("Uploaded {} changed SDBs, {} SDBs were unchanged since the last backup",
+                    manifest.size() - unchangedSdbs, unchangedSdbs);
+
+            // save metadata
+            metadata = new CerberusBackupMetadata()
+                    .setCerberusUrl(configStore.getCerberusBaseUrl())
+                    .setBackupDate(now)
+                    .setNumberOfSdbs(sdbMetadataList.size())
+                    .setNumberOfDataNodes(cerberusSdbMetadata.getNumberOfDataNodes())
+                    .setNumberOfKeyValuePairs(cerberusSdbMetadata.getNumberOfKeyValuePairs())
+                    .setNumberOfUniqueOwnerGroups(cerberusSdbMetadata.getUniqueOwnerGroups().size())
+                    .setNumberOfUniqueIamRoles(cerberusSdbMetadata.getUniqueIamRoles().size())
+                    .setNumberOfUniqueNonOwnerGroups(cerberusSdbMetadata.getUniqueNonOwnerGroups().size())
+                    .setSdbBackups(new TreeMap<>(manifest))
+                    .setCompression(command.getCompression());
+
+            if (metadata.getNumberOfKeyValuePairs() < 1) {
+                throw new RuntimeException("The number of backed up key value pairs was less than 1, this probably means something bad is going on");
+            }
 
-        saveDataToS3(metadata, prefix, key, regionsToStoreBackups);
+            saveDataToS3(metadata, prefix, BACKUP_METADATA_KEY, regionsToStoreBackups, regionUploadExecutor);
+        } finally {
+            regionUploadExecutor.shutdownNow();
+        }
 
         trackMetadataMetrics(metadata);
 
@@ -167,11 +230,314 @@ public class CreateCerberusBackupOperation implements Operation<CreateCerberusBa
         });
     }
 
+    /**
+     * Backs up the given SDBs with a pipeline of reader, serializer and uploader stages joined by bounded queues.
+     *
+     * A slow stage fills the queue in front of it which blocks the stage before it, so slow S3 or KMS calls hold
+     * back the Vault readers instead of letting the amount of backup data held in memory grow without limit.
+     *
+     * With a segment size set, the uploaders pack the SDBs into segment objects rather than storing each SDB as its
+     * own object, which cuts the number of S3 puts and KMS data keys from one per SDB to one per segment.
+     *
+     * Every SDB is added to the journal once it is stored in all of the regions, and the journal is checkpointed
+     * under the backup prefix periodically and when the backup fails, so that the backup can be resumed.
+     *
+     * @param sdbs The SDBs to back up
+     * @param prefix The prefix / virtual folder to store the encrypted json
+     * @param regions The regions to store the backups in
+     * @param previousManifest The manifest of the backup to skip unchanged SDBs against, empty for a full backup
+     * @param journal Journal with thread safe maps that are populated with the manifest entry and metadata of every
+     *                SDB that has been stored
+     * @param command The command with the thread counts and queue size for the stages
+     * @param regionUploadExecutor The executor used to put each backup to all of the regions concurrently
+     */
+    private void backupSdbs(List<SafeDepositBox> sdbs,
+                            String prefix,
+                            List<String> regions,
+                            Map<String, SdbBackupEntry> previousManifest,
+                            CerberusBackupJournal journal,
+                            CreateCerberusBackupCommand command,
+                            ExecutorService regionUploadExecutor) {
+
+        int vaultConcurrency = command.getVaultConcurrency();
+        if (vaultConcurrency < 1) {
+            throw new RuntimeException(String.format("Vault concurrency must be at least 1, but was %s",
+                    vaultConcurrency));
+        }
+
+        ExecutorService vaultExecutor = Executors.newFixedThreadPool(vaultConcurrency,
+                new ThreadFactoryBuilder().setNameFormat("vault-read-%d").setDaemon(true).build());
+        ScheduledExecutorService progressReporter = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("backup-progress").setDaemon(true).build());
+        // SDBs that have been serialized but are not yet stored in every region
+        Map<String, SdbBackupEntry> pendingEntries = new ConcurrentHashMap<>();
+        Map<String, CerberusSdbMetadata> pendingMetadata = new ConcurrentHashMap<>();
+        BackupCompression compression = command.getCompression();
+        AtomicLong uncompressedBytes = new AtomicLong();
+        AtomicLong storedBytes = new AtomicLong();
+
+        PipelineStage<SafeDepositBox, SafeDepositBox> readers = new PipelineStage<>("sdb-read",
+                command.getParallelism(), command.getQueueSize(), sdb -> readSdb(sdb, vaultExecutor));
+
+        PipelineStage<SafeDepositBox, BackupObject> serializers = new PipelineStage<>("sdb-serialize",
+                command.getSerializeThreads(), command.getQueueSize(), sdb -> {
+                    CerberusSdbMetadata sdbMetadata = processMetadata(sdb, new CerberusSdbMetadata());
+                    String key = getSdbKey(sdb);
+                    byte[] content = serialize(sdb, prefix, key);
+                    // the sdb is held by the metadata list for the whole backup, so release its secret data
+                    sdb.setData(Collections.emptyMap());
+
+                    String hash = Hashing.sha256().hashBytes(content).toString();
+                    SdbBackupEntry previousEntry = previousManifest.get(key);
+                    if (previousEntry != null && hash.equals(previousEntry.getHash())) {
+                        // unchanged, reference the earlier backup of this SDB rather than uploading it again
+                        journal.getSdbMetadata().put(key, sdbMetadata);
+                        journal.getSdbBackups().put(key, previousEntry);
+                        return null;
+                    }
+                    // the hash is of the uncompressed json, so that changing codec does not invalidate earlier backups
+                    pendingEntries.put(key, new SdbBackupEntry(hash, prefix, compression));
+                    pendingMetadata.put(key, sdbMetadata);
+                    byte[] compressed = compression.compress(content);
+                    uncompressedBytes.addAndGet(content.length);
+                    storedBytes.addAndGet(compressed.length);
+                    return new BackupObject(key, compressed, Collections.singletonList(key));
+                });
+
+        // packed backups upload a segment from whichever uploader fills it, instead of uploading each SDB
+        SegmentWriter segmentWriter = command.getSegmentSizeMb() > 0 ?
+                new SegmentWriter(command.getSegmentSizeMb() * BYTES_PER_MB, pendingEntries,
+                        getNextSegmentNumber(prefix, journal)) : null;
+        Consumer<BackupObject> upload = backupObject -> {
+            saveBytesToS3(backupObject.content, prefix, backupObject.key, regions, regionUploadExecutor);
+            backupObject.sdbKeys.forEach(key -> {
+                journal.getSdbMetadata().put(key, pendingMetadata.remove(key));
+                journal.getSdbBackups().put(key, pendingEntries.remove(key));
+            });
+        };
+
+        PipelineStage<BackupObject, Void> uploaders = new PipelineStage<>("sdb-upload",
+                command.getUploadThreads(), command.getQueueSize(), serializedSdb -> {
+                    if (segmentWriter == null) {
+                        upload.accept(serializedSdb);
+                    } else {
+                        segmentWriter.append(serializedSdb).ifPresent(upload);
+                    }
+                    return null;
+                });
+
+        readers.pipeTo(serializers).pipeTo(uploaders);
+        List<PipelineStage<?, ?>> stages = Arrays.asList(readers, serializers, uploaders);
+
+        long startTime = System.currentTimeMillis();
+        try {
+            stages.forEach(PipelineStage::start);
+            progressReporter.scheduleAtFixedRate(() -> reportProgress(stages, startTime),
+                    PROGRESS_REPORT_INTERVAL_SECONDS, PROGRESS_REPORT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+            progressReporter.scheduleWithFixedDelay(() -> saveJournal(journal, prefix, regions, regionUploadExecutor),
+                    JOURNAL_CHECKPOINT_INTERVAL_SECONDS, JOURNAL_CHECKPOINT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+
+            sdbs.forEach(readers::submit);
+            readers.complete();
+            uploaders.awaitCompletion();
+            if (segmentWriter != null) {
+                segmentWriter.flush().ifPresent(upload);
+            }
+        } catch (RuntimeException e) {
+            progressReporter.shutdownNow();
+            log.error("Backup failed, it can be resumed with {} {}", CreateCerberusBackupCommand.RESUME_LONG_ARG, prefix);
+            saveJournal(journal, prefix, regions, regionUploadExecutor);
+            throw e;
+        } finally {
+            progressReporter.shutdownNow();
+            stages.forEach(PipelineStage::shutdownNow);
+            vaultExecutor.shutdownNow();
+        }
+        reportProgress(stages, startTime);
+        log.info(String.format("Compressed %s bytes of SDB json to %s bytes with codec: %s",
+                uncompressedBytes.get(), storedBytes.get(), compression));
+    }
+
+    /**
+     * Loads the journal of a failed backup, keeping only the SDBs that still exist.
+     *
+     * @param prefix The prefix of the backup to resume
+     * @param regions The regions the backup is being stored in
+     * @param sdbs The SDBs that need to be in the backup
+     * @return The journal with thread safe maps, that the resumed backup adds the remaining SDBs to
+     */
+    private CerberusBackupJournal getJournalToResume(String prefix, List<String> regions, List<SafeDepositBox> sdbs) {
+        S3StoreService storeService = regionToEncryptedStoreServiceMap.get(regions.get(0));
+        if (getBackupMetadata(storeService, prefix).isPresent()) {
+            throw new RuntimeException(String.format("The backup with prefix: %s is already complete", prefix));
+        }
+
+        Map<String, SdbBackupEntry> sdbBackups = new ConcurrentHashMap<>();
+        Map<String, CerberusSdbMetadata> sdbMetadata = new ConcurrentHashMap<>();
+        Optional<String> json = storeService.get(prefix + '/' + BACKUP_JOURNAL_KEY);
+        if (! json.isPresent()) {
+            log.warn("No journal was found for backup {}, all of the SDBs will be backed up", prefix);
+        } else {
+            CerberusBackupJournal journal;
+            try {
+                journal = objectMapper.readValue(json.get(), CerberusBackupJournal.class);
+            } catch (IOException e) {
+                throw new RuntimeException(String.format("Failed to deserialize backup journal, Prefix: %s", prefix), e);
+            }
+
+            // the journal is written while SDBs are being stored, so an SDB only counts as done when it has both
+            sdbs.stream().map(this::getSdbKey)
+                    .filter(key -> journal.getSdbBackups().containsKey(key) && journal.getSdbMetadata().containsKey(key))
+                    .forEach(key -> {
+                        sdbBackups.put(key, journal.getSdbBackups().get(key));
+                        sdbMetadata.put(key, journal.getSdbMetadata().get(key));
+                    });
+            log.info("Resuming backup {}, {} of {} SDBs were already backed up", prefix, sdbBackups.size(), sdbs.size());
+        }
+
+        return new CerberusBackupJournal().setSdbBackups(sdbBackups).setSdbMetadata(sdbMetadata);
+    }
+
+    /**
+     * Checkpoints the SDBs that have been stored so far, failures are logged rather than failing the backup.
+     */
+    private void saveJournal(CerberusBackupJournal journal,
+                             String prefix,
+                             List<String> regions,
+                             ExecutorService regionUploadExecutor) {
+
+        CerberusBackupJournal snapshot = new CerberusBackupJournal()
+                .setSdbBackups(new TreeMap<>(journal.getSdbBackups()))
+                .setSdbMetadata(new TreeMap<>(journal.getSdbMetadata()));
+        try {
+            saveDataToS3(snapshot, prefix, BACKUP_JOURNAL_KEY, regions, regionUploadExecutor);
+        } catch (RuntimeException e) {
+            log.error("Failed to save the backup journal for prefix: {}", prefix, e);
+        }
+    }
+
+    /**
+     * A resumed backup must not overwrite the segments that the SDBs already in the journal are stored in.
+     */
+    private int getNextSegmentNumber(String prefix, CerberusBackupJournal journal) {
+        return journal.getSdbBackups().values().stream()
+                .filter(entry -> prefix.equals(entry.getPrefix()) && entry.getSegment() != null)
+                .mapToInt(entry -> Integer.parseInt(StringUtils.removeStart(entry.getSegment(), SEGMENT_KEY_PREFIX)) + 1)
+                .max()
+                .orElse(0);
+    }
+
+    /**
+     * Finds the most recent complete backup and returns its manifest, so that an incremental backup can skip the
+     * SDBs that have not changed since then.
+     *
+     * @param prefix The prefix of the backup being created
+     * @param regions The regions the backup is being stored in
+     * @return The manifest of the previous backup, or an empty map if a full backup is needed
+     */
+    private Map<String, SdbBackupEntry> getPreviousManifest(String prefix, List<String> regions) {
+        S3StoreService storeService = regionToEncryptedStoreServiceMap.get(regions.get(0));
+        List<String> previousPrefixes = storeService.listFoldersUnderPartialPath("").stream()
+                .filter(previousPrefix -> previousPrefix.compareTo(prefix) < 0)
+                .sorted(Comparator.reverseOrder())
+                .collect(Collectors.toList());
+
+        for (String previousPrefix : previousPrefixes) {
+            Optional<CerberusBackupMetadata> previousMetadata = getBackupMetadata(storeService, previousPrefix);
+            if (! previousMetadata.isPresent()) {
+                log.info("Skipping incomplete backup {}, it has no backup metadata", previousPrefix);
+                continue;
+            }
+
+            if (previousMetadata.get().getSdbBackups() == null) {
+                log.info("The last backup {} has no SDB manifest, creating a full backup", previousPrefix);
+                return Collections.emptyMap();
+            }
+
+            // references to the previous backup are only valid if every region holds it
+            for (String region : regions) {
+                if (! regionToEncryptedStoreServiceMap.get(region).get(previousPrefix + '/' + BACKUP_METADATA_KEY).isPresent()) {
+                    log.info("The last backup {} is not stored in region: {}, creating a full backup", previousPrefix, region);
+                    return Collections.emptyMap();
+                }
+            }
+
+            log.info("Creating an incremental backup against the last backup {}", previousPrefix);
+            return previousMetadata.get().getSdbBackups();
+        }
+
+        log.info("No previous backup was found, creating a full backup");
+        return Collections.emptyMap();
+    }
+
+    private Optional<CerberusBackupMetadata> getBackupMetadata(S3StoreService storeService, String prefix) {
+        Optional<String> json = storeService.get(prefix + '/' + BACKUP_METADATA_KEY);
+        if (! json.isPresent()) {
+            return Optional.empty();
+        }
+
+        try {
+            return Optional.of(objectMapper.readValue(json.get(), CerberusBackupMetadata.class));
+        } catch (IOException e) {
+            throw new RuntimeException(String.format("Failed to deserialize backup metadata, Prefix: %s", prefix), e);
+        }
+    }
+
+    /**
+     * Downloads the Vault data for a single SDB.
+     *
+     * @return The SDB with its data populated
+     */
+    private SafeDepositBox readSdb(SafeDepositBox sdb, ExecutorService vaultExecutor) {
+        log.info(String.format("Backing up %s", sdb.getName()));
+        Map<String, Map<String, Object>> vaultData = new ConcurrentSkipListMap<>();
+        try {
+            recurseVault(sdb.getPath(), vaultData, vaultExecutor).join();
+        } catch (CompletionException e) {
+            throw new RuntimeException(String.format("Failed to read Vault data for SDB: %s", sdb.getName()),
+                    e.getCause());
+        }
+        sdb.setData(vaultData);
+        return sdb;
+    }
+
+    private String getSdbKey(SafeDepositBox sdb) {
+        return sdb.getName().toLowerCase().replaceAll("\\W+", "-");
+    }
+
+    /**
+     * Logs the queue depth and throughput of each of the backup stages.
+     */
+    private void reportProgress(List<PipelineStage<?, ?>> stages, long startTime) {
+        double elapsedSeconds = Math.max(System.currentTimeMillis() - startTime, 1) / 1000d;
+        stages.forEach(stage -> log.info(String.format("Stage: %s, queue depth: %s, processed: %s, throughput: %.2f/s",
+                stage.getName(), stage.getQueueDepth(), stage.getProcessedCount(),
+                stage.getProcessedCount() / elapsedSeconds)));
+    }
+
     /**
      * Vaildates that the user inputed regions are valid AWS regions
      *
      * @param regionsToStoreBackups The user inputed list of regions
      */
+    /**
+     * The SDB key names the SDB's object in S3 and its entry in the manifest, so two SDBs whose names normalize to the
+     * same key would overwrite each other's backup.
+     */
+    private void validateSdbKeys(List<SafeDepositBox> sdbs) {
+        Map<String, List<String>> namesByKey = sdbs.stream()
+                .collect(Collectors.groupingBy(this::getSdbKey, TreeMap::new,
+                        Collectors.mapping(SafeDepositBox::getName, Collectors.toList())));
+        List<String> collisions = namesByKey.entrySet().stream()
+                .filter(entry -> entry.getValue().size() > 1)
+                .map(entry -> String.format("%s: %s", entry.getKey(), entry.getValue()))
+                .collect(Collectors.toList());
+        if (! collisions.isEmpty()) {
+            throw new RuntimeException(String.format("Cannot back up SDBs whose names map to the same backup key: %s",
+                    collisions));
+        }
+    }
+
     private void validateRegions(List<String> regionsToStoreBackups) {
         regionsToStoreBackups.forEach(region -> {
             try {
@@ -226,25 +592,51 @@ public class CreateCerberusBackupOperation implements Operation<CreateCerberusBa
         return newMetadata;
     }
 
+    /**
+     * Combines the metadata of two sets of SDBs into new metadata.
+     */
+    private CerberusSdbMetadata mergeMetadata(CerberusSdbMetadata first, CerberusSdbMetadata second) {
+        CerberusSdbMetadata merged = new CerberusSdbMetadata(
+                first.getNumberOfKeyValuePairs() + second.getNumberOfKeyValuePairs(),
+                first.getNumberOfDataNodes() + second.getNumberOfDataNodes(),
+                new HashSet<>(first.getUniqueOwnerGroups()),
+                new HashSet<>(first.getUniqueIamRoles()),
+                new HashSet<>(first.getUniqueNonOwnerGroups())
+        );
+
+        merged.getUniqueOwnerGroups().addAll(second.getUniqueOwnerGroups());
+        merged.getUniqueIamRoles().addAll(second.getUniqueIamRoles());
+        merged.getUniqueNonOwnerGroups().addAll(second.getUniqueNonOwnerGroups());
+        return merged;
+    }
+
     /**
      * Recurse a Vault path for data.
      *
+     * Every list and read is submitted to the Vault executor as its own task and sub folders are walked as soon as
+     * they are listed, so the time to walk a path is bounded by the depth of the tree rather than the number of nodes.
+     * Tasks never block waiting on other tasks, so the size of the executor caps the number of in-flight requests.
+     *
      * @param path The path to recurse
-     * @return Map of Vault path Strings to Maps of String, String containing the secret kv pairs
+     * @param data Thread safe map of Vault path Strings to Maps of String, String containing the secret kv pairs
+     * @param vaultExecutor The executor to make the Vault requests on
+     * @return Future that completes once the path and all of its sub folders have been read into the data map
      */
-    private Map<String, Map<String, Object>> recurseVault(String path, Map<String, Map<String, Object>> data) {
-        List<String> keys = getKeys(path);
-
-        keys.forEach(key -> {
-            String compositeKey = path + key;
-            if (key.endsWith("/")) {
-                recurseVault( compositeKey, data);
-            } else {
-                data.put(compositeKey, getData(compositeKey));
-            }
-        });
-
-        return data;
+    private CompletableFuture<Void> recurseVault(String path,
+                                                 Map<String, Map<String, Object>> data,
+                                                 ExecutorService vaultExecutor) {
+
+        return CompletableFuture.supplyAsync(() -> getKeys(path), vaultExecutor).thenCompose(keys ->
+                CompletableFuture.allOf(keys.stream().map(key -> {
+                    String compositeKey = path + key;
+                    if (key.endsWith("/")) {
+                        return recurseVault(compositeKey, data, vaultExecutor);
+                    } else {
+                        return CompletableFuture.runAsync(() -> data.put(compositeKey, getData(compositeKey)),
+                                vaultExecutor);
+                    }
+                }).toArray(CompletableFuture[]::new))
+        );
     }
 
     /**
@@ -274,23 +666,47 @@ public class CreateCerberusBackupOperation implements Operation<CreateCerberusBa
      * @param object The sdb data to back up
      * @param prefix The prefix / virtual folder to store the encrypted json
      */
-    private void saveDataToS3(Object object, String prefix, String key, List<String> regions) {
-        String json = null;
+    private void saveDataToS3(Object object,
+                              String prefix,
+                              String key,
+                              List<String> regions,
+                              ExecutorService regionUploadExecutor) {
+
+        saveBytesToS3(serialize(object, prefix, key), prefix, key, regions, regionUploadExecutor);
+    }
+
+    private byte[] serialize(Object object, String prefix, String key) {
         try {
-            json = objectMapper.writeValueAsString(object);
+            return objectMapper.writeValueAsBytes(object);
         } catch (JsonProcessingException e) {
             throw new RuntimeException(String.format("Failed to serialized SDB data, Prefix: %s, Key: %s", prefix, key), e);
         }
+    }
 
-        for (String region : regions) {
-            S3StoreService storeService = regionToEncryptedStoreServiceMap.getOrDefault(region,
-                    getEncryptedStoreServiceForRegion(region));
+    /**
+     * Puts the serialized data to every region concurrently, so the time taken is that of the slowest region.
+     */
+    private void saveBytesToS3(byte[] content,
+                               String prefix,
+                               String key,
+                               List<String> regions,
+                               ExecutorService regionUploadExecutor) {
+
+        CompletableFuture<?>[] puts = regions.stream()
+                .map(region -> CompletableFuture.runAsync(() ->
+                        regionToEncryptedStoreServiceMap.get(region).put(prefix + '/' + key, content),
+                        regionUploadExecutor))
+                .toArray(CompletableFuture[]::new);
 
-            storeService.put(prefix + '/' + key, json);
+        try {
+            CompletableFuture.allOf(puts).join();
+        } catch (CompletionException e) {
+            throw new RuntimeException(String.format("Failed to save backup to S3, Prefix: %s, Key: %s", prefix, key),
+                    e.getCause());
         }
     }
 
-    private S3StoreService getEncryptedStoreServiceForRegion(String region) {
+    protected S3StoreService getEncryptedStoreServiceForRegion(String region) {
         Optional<BackupRegionInfo> backupRegionInfo = configStore.getBackupInfoForRegion(region);
 
         if (! backupRegionInfo.isPresent()) {
@@ -312,9 +728,7 @@ public class CreateCerberusBackupOperation implements Operation<CreateCerberusBa
                         .withRegion(region)
                         .build();
 
-        S3StoreService storeService = new S3StoreService(encryptionClient, backupRegionInfo.get().getS3Bucket(), "");
-        regionToEncryptedStoreServiceMap.put(region, storeService);
-        return storeService;
+        return new S3StoreService(encryptionClient, backupRegionInfo.get().getS3Bucket(), "");
     }
 
     private String provisionBackupBucketForRegion(String region) {
@@ -377,6 +791,60 @@ public class CreateCerberusBackupOperation implements Operation<CreateCerberusBa
         return keyId;
     }
 
+    /**
+     * The serialized backup of an SDB, or a segment of packed SDBs, waiting to be uploaded
+     */
+    private static final class BackupObject {
+        private final String key;
+        private final byte[] content;
+        private final List<String> sdbKeys;
+
+        private BackupObject(String key, byte[] content, List<String> sdbKeys) {
+            this.key = key;
+            this.content = content;
+            this.sdbKeys = sdbKeys;
+        }
+    }
+
+    /**
+     * Appends serialized SDBs to a segment, recording the offset of each in its manifest entry, and hands back the
+     * segment once it has reached the segment size.
+     */
+    private static final class SegmentWriter {
+        private final long segmentSize;
+        private final Map<String, SdbBackupEntry> manifest;
+        private ByteArrayOutputStream segment = new ByteArrayOutputStream();
+        private List<String> segmentSdbKeys = new LinkedList<>();
+        private int segmentNumber;
+
+        private SegmentWriter(long segmentSize, Map<String, SdbBackupEntry> manifest, int firstSegmentNumber) {
+            this.segmentSize = segmentSize;
+            this.manifest = manifest;
+            this.segmentNumber = firstSegmentNumber;
+        }
+
+        private synchronized Optional<BackupObject> append(BackupObject sdb) {
+            manifest.get(sdb.key)
+                    .setSegment(String.format(SEGMENT_KEY_FORMAT, segmentNumber))
+                    .setOffset((long) segment.size())
+                    .setLength((long) sdb.content.length);
+            segment.write(sdb.content, 0, sdb.content.length);
+            segmentSdbKeys.add(sdb.key);
+            return segment.size() >= segmentSize ? flush() : Optional.empty();
+        }
+
+        private synchronized Optional<BackupObject> flush() {
+            if (segment.size() == 0) {
+                return Optional.empty();
+            }
+            BackupObject fullSegment = new BackupObject(String.format(SEGMENT_KEY_FORMAT, segmentNumber++),
+                    segment.toByteArray(), segmentSdbKeys);
+            segment = new ByteArrayOutputStream();
+            segmentSdbKeys = new LinkedList<>();
+            return Optional.of(fullSegment);
+        }
+    }
+
     @Override
     public boolean isRunnable(CreateCerberusBackupCommand command) {
         if (configStore.getBackupAdminIamPrincipals().isEmpty()) {
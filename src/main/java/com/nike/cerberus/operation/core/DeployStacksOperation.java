@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.operation.core;
+
+import com.beust.jcommander.JCommander;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Injector;
+import com.nike.cerberus.ConfigConstants;
+import com.nike.cerberus.cli.EnvironmentConfigToArgsMapper;
+import com.nike.cerberus.command.Command;
+import com.nike.cerberus.command.cms.CreateCmsClusterCommand;
+import com.nike.cerberus.command.consul.CreateConsulClusterCommand;
+import com.nike.cerberus.command.core.CreateBaseCommand;
+import com.nike.cerberus.command.core.DeployStacksCommand;
+import com.nike.cerberus.command.core.UpdateStackCommand;
+import com.nike.cerberus.command.gateway.CreateGatewayClusterCommand;
+import com.nike.cerberus.command.vault.CreateVaultClusterCommand;
+import com.nike.cerberus.domain.environment.StackName;
+import com.nike.cerberus.domain.input.EnvironmentConfig;
+import com.nike.cerberus.operation.Operation;
+import com.nike.cerberus.store.ConfigStore;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Operation for creating or updating the stacks of an environment from the environment yaml.
+ *
+ * Each stack waits on the stacks it depends on, stacks that do not depend on each other are deployed in parallel.
+ */
+public class DeployStacksOperation implements Operation<DeployStacksCommand> {
+
+    /**
+     * The stacks each stack depends on, in the order they can be deployed in.
+     */
+    private static final Map<StackName, Set<StackName>> STACK_DEPENDENCIES = ImmutableMap.of(
+            StackName.BASE, ImmutableSet.of(),
+            StackName.CONSUL, ImmutableSet.of(StackName.BASE),
+            StackName.VAULT, ImmutableSet.of(StackName.CONSUL),
+            StackName.CMS, ImmutableSet.of(StackName.VAULT),
+            StackName.GATEWAY, ImmutableSet.of(StackName.VAULT));
+
+    /**
+     * Additional dependencies that only apply when the stack is created, the gateway is pointed at the CMS stack.
+     */
+    private static final Map<StackName, Set<StackName>> CREATE_STACK_DEPENDENCIES = ImmutableMap.of(
+            StackName.GATEWAY, ImmutableSet.of(StackName.CMS));
+
+    private static final Map<StackName, Supplier<Command>> CREATE_STACK_COMMANDS = ImmutableMap.of(
+            StackName.BASE, CreateBaseCommand::new,
+            StackName.CONSUL, CreateConsulClusterCommand::new,
+            StackName.VAULT, CreateVaultClusterCommand::new,
+            StackName.CMS, CreateCmsClusterCommand::new,
+            StackName.GATEWAY, CreateGatewayClusterCommand::new);
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final ConfigStore configStore;
+
+    private final Injector injector;
+
+    private final Optional<EnvironmentConfig> environmentConfig;
+
+    @Inject
+    public DeployStacksOperation(final ConfigStore configStore,
+                                 final Injector injector,
+                                 final Optional<EnvironmentConfig> environmentConfig) {
+        this.configStore = configStore;
+        this.injector = injector;
+        this.environmentConfig = environmentConfig;
+    }
+
+    @Override
+    public void run(final DeployStacksCommand command) {
+        final Set<StackName> stackNames = getStackNames(command);
+        final ExecutorService executor = Executors.newFixedThreadPool(stackNames.size(),
+                new ThreadFactoryBuilder().setNameFormat("deploy-stacks-%d").setDaemon(true).build());
+        final Map<StackName, CompletableFuture<Void>> deployments = new LinkedHashMap<>();
+
+        try {
+            // the dependency map is in deployment order, so every dependency is scheduled before its dependents
+            for (final StackName stackName : STACK_DEPENDENCIES.keySet()) {
+                if (! stackNames.contains(stackName)) {
+                    continue;
+                }
+
+                final boolean isCreate = StringUtils.isBlank(configStore.getStackId(stackName));
+                final CompletableFuture<?>[] dependencies = getDependencies(stackName, isCreate).stream()
+                        .filter(deployments::containsKey)
+                        .map(deployments::get)
+                        .toArray(CompletableFuture[]::new);
+
+                deployments.put(stackName, CompletableFuture.allOf(dependencies)
+                        .thenRunAsync(() -> deploy(stackName, isCreate, command), executor));
+            }
+
+            // a stack whose dependency failed is never deployed, its future fails with the dependency's failure
+            CompletableFuture.allOf(deployments.values().toArray(new CompletableFuture[deployments.size()]))
+                    .handle((result, throwable) -> null)
+                    .join();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final List<String> failedStacks = deployments.entrySet().stream()
+                .filter(deployment -> deployment.getValue().isCompletedExceptionally())
+                .map(deployment -> deployment.getKey().getName())
+                .collect(Collectors.toList());
+
+        if (! failedStacks.isEmpty()) {
+            throw new RuntimeException(String.format("Failed to deploy the stacks: %s, " +
+                    "stacks that depend on a failed stack were not deployed", failedStacks));
+        }
+
+        logger.info("Deployed the stacks: {}",
+                deployments.keySet().stream().map(StackName::getName).collect(Collectors.toList()));
+    }
+
+    @Override
+    public boolean isRunnable(final DeployStacksCommand command) {
+        if (! environmentConfig.isPresent()) {
+            logger.error("The {} command requires the environment yaml to be supplied with --file", command.getCommandName());
+            return false;
+        }
+
+        final Set<String> deployableStackNames = STACK_DEPENDENCIES.keySet().stream()
+                .map(StackName::getName)
+                .collect(Collectors.toSet());
+        for (final String stackName : command.getStackNames()) {
+            if (! deployableStackNames.contains(stackName)) {
+                logger.error("The {} stack can not be deployed by the {} command", stackName, command.getCommandName());
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private Set<StackName> getStackNames(final DeployStacksCommand command) {
+        if (command.getStackNames().isEmpty()) {
+            return STACK_DEPENDENCIES.keySet();
+        }
+
+        return command.getStackNames().stream().map(StackName::fromName).collect(Collectors.toSet());
+    }
+
+    private Set<StackName> getDependencies(final StackName stackName, final boolean isCreate) {
+        if (isCreate && CREATE_STACK_DEPENDENCIES.containsKey(stackName)) {
+            return ImmutableSet.<StackName>builder()
+                    .addAll(STACK_DEPENDENCIES.get(stackName))
+                    .addAll(CREATE_STACK_DEPENDENCIES.get(stackName))
+                    .build();
+        }
+
+        return STACK_DEPENDENCIES.get(stackName);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void deploy(final StackName stackName, final boolean isCreate, final DeployStacksCommand command) {
+        final Command stackCommand = isCreate ? getCreateStackCommand(stackName, command) : getUpdateStackCommand(stackName, command);
+        final Operation operation = injector.getInstance(stackCommand.getOperationClass());
+
+        try {
+            if (! operation.isRunnable(stackCommand)) {
+                throw new RuntimeException(String.format("The %s command is not runnable for the %s stack",
+                        stackCommand.getCommandName(), stackName.getName()));
+            }
+
+            logger.info("{} the {} stack.", isCreate ? "Creating" : "Updating", stackName.getName());
+            operation.run(stackCommand);
+            logger.info("Finished deploying the {} stack.", stackName.getName());
+        } catch (RuntimeException e) {
+            logger.error(String.format("Failed to deploy the %s stack", stackName.getName()), e);
+            throw e;
+        }
+    }
+
+    private Command getCreateStackCommand(final StackName stackName, final DeployStacksCommand command) {
+        final List<String> extraArgs = new LinkedList<>();
+
+        // there is no AMI for base
+        if (command.isSkipAmiTagCheck() && StackName.BASE != stackName) {
+            extraArgs.add(ConfigConstants.SKIP_AMI_TAG_CHECK_ARG);
+        }
+
+        return parseStackCommand(CREATE_STACK_COMMANDS.get(stackName).get(), command, new String[0], extraArgs);
+    }
+
+    private Command getUpdateStackCommand(final StackName stackName, final DeployStacksCommand command) {
+        final List<String> passedArgs = new LinkedList<>();
+        passedArgs.add(EnvironmentConfigToArgsMapper.STACK_NAME_KEY);
+        passedArgs.add(stackName.getName());
+        if (command.isOverwriteTemplate()) {
+            passedArgs.add(UpdateStackCommand.OVERWRITE_TEMPLATE_LONG_ARG);
+        }
+
+        final List<String> extraArgs = new LinkedList<>();
+        if (command.isSkipAmiTagCheck()) {
+            extraArgs.add(ConfigConstants.SKIP_AMI_TAG_CHECK_ARG);
+        }
+
+        return parseStackCommand(new UpdateStackCommand(), command,
+                passedArgs.toArray(new String[passedArgs.size()]), extraArgs);
+    }
+
+    /**
+     * Sources the args for the stack command from the environment yaml the same way the runner does for --file.
+     */
+    private Command parseStackCommand(final Command stackCommand,
+                                      final DeployStacksCommand command,
+                                      final String[] passedArgs,
+                                      final List<String> extraArgs) {
+        final List<String> args = EnvironmentConfigToArgsMapper.getArgsForCommand(environmentConfig.get(),
+                stackCommand.getCommandName(), passedArgs);
+        args.addAll(extraArgs);
+
+        new JCommander(stackCommand).parse(args.toArray(new String[args.size()]));
+        return stackCommand;
+    }
+}
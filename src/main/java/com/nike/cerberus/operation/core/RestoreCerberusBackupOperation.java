@@ -24,14 +24,22 @@ import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 import com.amazonaws.services.s3.AmazonS3EncryptionClient;
 import com.amazonaws.services.s3.model.CryptoConfiguration;
 import com.amazonaws.services.s3.model.KMSEncryptionMaterialsProvider;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.github.tomaslanger.chalk.Chalk;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
+import com.nike.cerberus.ConfigConstants;
 import com.nike.cerberus.client.CerberusAdminClient;
 import com.nike.cerberus.client.CerberusAdminClientFactory;
 import com.nike.cerberus.command.core.RestoreCerberusBackupCommand;
+import com.nike.cerberus.domain.backup.BackupCompression;
+import com.nike.cerberus.domain.backup.SdbBackupEntry;
 import com.nike.cerberus.module.CerberusModule;
 import com.nike.cerberus.operation.Operation;
 import com.nike.cerberus.service.ConsoleService;
@@ -44,13 +52,29 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Named;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.text.DecimalFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 /**
  * Operation for restoring Safe Deposit Box Metadata and Vault secret data for SDBs from backups that are in S3 from
@@ -69,6 +93,13 @@ public class RestoreCerberusBackupOperation implements Operation<RestoreCerberus
     private static final String CERBERUS_BACKUP_API_URL_S = "cerberus_url";
     private static final String CERBERUS_BACKUP_DATE_S = "backup_date";
     private static final String CERBERUS_BACKUP_SDB_COUNT_S = "number_of_sdbs";
+    private static final String CERBERUS_BACKUP_SDB_BACKUPS_S = "sdb_backups";
+    private static final String CERBERUS_BACKUP_COMPRESSION_S = "compression";
+    private static final String SDB_DATA_FIELD = "data";
+
+    private static final Comparator<JsonNode> NUMBERS_BY_VALUE = (first, second) ->
+            first.isNumber() && second.isNumber() ?
+                    Double.compare(first.doubleValue(), second.doubleValue()) : (first.equals(second) ? 0 : 1);
 
     private final ObjectMapper objectMapper;
     private final ConsoleService console;
@@ -99,60 +130,202 @@ public class RestoreCerberusBackupOperation implements Operation<RestoreCerberus
         AmazonS3 s3 = AmazonS3ClientBuilder.standard().withRegion(command.getS3Region()).build();
         S3StoreService s3StoreService = new S3StoreService(s3, command.getS3Bucket(), command.getS3Prefix());
 
-        Set<String> keys = s3StoreService.getKeysInPartialPath("");
-        if (keys.isEmpty()) {
-            logger.error("There where no keys in {}/{}", command.getS3Bucket(), command.getS3Prefix());
-        }
-
-        if (! keys.contains(CERBERUS_BACKUP_METADATA_JSON_FILE_KEY)) {
+        if (! s3StoreService.exists(CERBERUS_BACKUP_METADATA_JSON_FILE_KEY)) {
             throw new RuntimeException(
                     String.format("cerberus-backup-metadata.json was not found in s3://%s/%s/ is this a complete backup?",
                             command.getS3Bucket(), command.getS3Prefix()));
         }
 
         String kmsCustomerMasterKeyId = getKmsCmkId(CERBERUS_BACKUP_METADATA_JSON_FILE_KEY, s3StoreService);
-        S3StoreService s3EncryptionStoreService = getS3EncryptionStoreService(kmsCustomerMasterKeyId, command);
+        AmazonS3EncryptionClient encryptionClient = getS3EncryptionClient(kmsCustomerMasterKeyId, command);
+        S3StoreService s3EncryptionStoreService =
+                new S3StoreService(encryptionClient, command.getS3Bucket(), command.getS3Prefix());
+        // incremental backups reference SDB json stored under earlier prefixes, so SDBs are read from the bucket root
+        S3StoreService s3BucketEncryptionStoreService =
+                new S3StoreService(encryptionClient, command.getS3Bucket(), "");
         CerberusAdminClient cerberusAdminClient = cerberusAdminClientFactory.createCerberusAdminClient(command.getCerberusUrl());
 
-        validateRestore(s3EncryptionStoreService, command);
-
-        keys.remove(CERBERUS_BACKUP_METADATA_JSON_FILE_KEY);
-        Double i = 0d;
-        DecimalFormat df = new DecimalFormat("#.##");
-        for (String sdbBackupKey : keys) {
-            try {
-                Double percent = i / keys.size() * 100;
-                System.out.print(String.format("Restoring backups %s%% complete\r", df.format(percent)));
-                String json = getDecryptedJson(sdbBackupKey, s3EncryptionStoreService);
-                processBackup(json, cerberusAdminClient);
-            } catch (Throwable t) {
-                logger.error("Failed to process backup json for {}", Chalk.on(sdbBackupKey).red().toString(), t);
-            }
-            i++;
+        JsonNode backupMetadata = getBackupMetadata(s3EncryptionStoreService);
+        validateRestore(backupMetadata, command);
+
+        Stream<String> keys = s3StoreService.streamKeysInPartialPath("")
+                .filter(key -> ! key.equals(CERBERUS_BACKUP_METADATA_JSON_FILE_KEY));
+        Map<String, SdbBackupEntry> sdbBackups = getSdbBackups(backupMetadata, keys, command.getS3Prefix());
+        SecretCounts counts = new SecretCounts();
+        Map<String, Throwable> failures = restoreSdbs(sdbBackups, s3BucketEncryptionStoreService, cerberusAdminClient,
+                command.getParallelism(), command.isDiff(), counts);
+
+        logger.info("Wrote {} secret paths, deleted {} and skipped {} that were unchanged",
+                counts.written.get(), counts.deleted.get(), counts.skipped.get());
+        if (failures.isEmpty()) {
+            logger.info("Restore complete, restored {} SDBs", sdbBackups.size());
+        } else {
+            logger.error(Chalk.on(String.format("Restore complete, but %s of %s SDBs failed to restore:",
+                    failures.size(), sdbBackups.size())).red().toString());
+            failures.forEach((sdbKey, cause) -> logger.error("  {}: {}", sdbKey, cause.toString()));
+        }
+    }
+
+    /**
+     * Restores the SDBs with a pool of workers. Each SDB is restored by a single worker, so its metadata is restored,
+     * its secrets deleted and its secrets written in order, while independent SDBs are restored concurrently.
+     *
+     * @param sdbBackups The manifest entries of the SDBs to restore by SDB key
+     * @param s3StoreService The store to read the SDB backups from
+     * @param cerberusAdminClient The client to restore the SDBs with
+     * @param parallelism The number of SDBs to restore concurrently
+     * @param diff Whether to only write the secrets that differ from what is in Vault
+     * @param counts The counts of secret paths written, deleted and skipped to add to
+     * @return The SDBs that failed to restore by SDB key, with the cause of each failure
+     */
+    protected Map<String, Throwable> restoreSdbs(Map<String, SdbBackupEntry> sdbBackups,
+                                                 S3StoreService s3StoreService,
+                                                 CerberusAdminClient cerberusAdminClient,
+                                                 int parallelism,
+                                                 boolean diff,
+                                                 SecretCounts counts) {
+
+        if (parallelism < 1) {
+            throw new RuntimeException(String.format("Parallelism must be at least 1, but was %s", parallelism));
+        }
+
+        ExecutorService restoreExecutor = Executors.newFixedThreadPool(parallelism,
+                new ThreadFactoryBuilder().setNameFormat("sdb-restore-%d").setDaemon(true).build());
+        Map<String, Throwable> failures = new ConcurrentSkipListMap<>();
+        AtomicInteger completed = new AtomicInteger();
+        List<CompletableFuture<Void>> restores = new LinkedList<>();
+
+        groupByObjectPath(sdbBackups).forEach((objectPath, sdbKeys) -> {
+            // download a segment once when several SDBs are read from it, a single SDB is read with a range get
+            SharedSegment segment = sdbKeys.size() > 1 ?
+                    new SharedSegment(() -> getObjectContent(objectPath, s3StoreService), sdbKeys.size()) : null;
+
+            sdbKeys.forEach(sdbKey -> restores.add(CompletableFuture.runAsync(() -> {
+                SdbBackupEntry sdbBackup = sdbBackups.get(sdbKey);
+                try {
+                    byte[] content = getSdbBackupContent(objectPath, sdbBackup,
+                            segment == null ? null : segment.get(), s3StoreService);
+                    processBackup(content, sdbBackup.getCompression(), cerberusAdminClient, diff, counts);
+                } catch (Throwable t) {
+                    logger.error("Failed to process backup json for {}", Chalk.on(sdbKey).red().toString(), t);
+                    failures.put(sdbKey, t);
+                } finally {
+                    if (segment != null) {
+                        segment.release();
+                    }
+                    reportProgress(completed, sdbBackups.size());
+                }
+            }, restoreExecutor)));
+        });
+
+        try {
+            CompletableFuture.allOf(restores.toArray(new CompletableFuture<?>[restores.size()])).join();
+        } finally {
+            restoreExecutor.shutdownNow();
         }
         System.out.print("Restoring backups 100% complete\n");
-        logger.info("Restore complete");
+        return failures;
     }
 
     /**
-     * Use the metadata from the backup and ensure that the user wants to proceed
-     * @param s3StoreService - The encrypted S3 store service
+     * Counts a restored SDB and prints the progress, under a lock so that the progress printed never goes backwards.
      */
-    private void validateRestore(S3StoreService s3StoreService, RestoreCerberusBackupCommand command) {
+    private synchronized void reportProgress(AtomicInteger completed, int total) {
+        Double percent = (double) completed.incrementAndGet() / total * 100;
+        System.out.print(String.format("Restoring backups %s%% complete\r", new DecimalFormat("#.##").format(percent)));
+    }
+
+    private JsonNode getBackupMetadata(S3StoreService s3StoreService) {
         String backupMetadataJsonString = getDecryptedJson(CERBERUS_BACKUP_METADATA_JSON_FILE_KEY, s3StoreService);
-        Map<String, String> backupMetadata;
         try {
-            backupMetadata = objectMapper.readValue(backupMetadataJsonString, new TypeReference<HashMap<String,String>>() {});
+            return objectMapper.readTree(backupMetadataJsonString);
         } catch (IOException e) {
             throw new RuntimeException("Failed to deserialize backup metadata", e);
         }
+    }
+
+    /**
+     * Resolves the manifest entries of the SDB backups to restore.
+     *
+     * Backups with an SDB manifest list every SDB in the snapshot along with the prefix that holds its json, which
+     * for incremental backups may be an earlier backup, the codec it was compressed with and, for packed backups,
+     * the segment and byte range that holds it. Older backups without a manifest are restored from the keys listed
+     * under the backup prefix.
+     *
+     * @param backupMetadata The backup metadata
+     * @param keys The SDB backup keys under the backup prefix, only listed if the backup has no manifest
+     * @param prefix The prefix of the backup being restored
+     * @return The manifest entries by SDB key
+     */
+    protected Map<String, SdbBackupEntry> getSdbBackups(JsonNode backupMetadata, Stream<String> keys, String prefix) {
+        JsonNode sdbBackupsNode = backupMetadata.get(CERBERUS_BACKUP_SDB_BACKUPS_S);
+        if (sdbBackupsNode == null || sdbBackupsNode.isNull()) {
+            JsonNode compressionNode = backupMetadata.get(CERBERUS_BACKUP_COMPRESSION_S);
+            BackupCompression compression = BackupCompression.fromName(
+                    compressionNode == null || compressionNode.isNull() ? null : compressionNode.asText());
+
+            Map<String, SdbBackupEntry> sdbBackups = new TreeMap<>();
+            keys.forEach(key -> sdbBackups.put(key, new SdbBackupEntry(null, prefix, compression)));
+            return sdbBackups;
+        }
+
+        Map<String, SdbBackupEntry> sdbBackups = objectMapper.convertValue(sdbBackupsNode,
+                new TypeReference<TreeMap<String, SdbBackupEntry>>() {});
+        sdbBackups.values().stream()
+                .filter(entry -> entry.getCompression() == null)
+                .forEach(entry -> entry.setCompression(BackupCompression.NONE));
+        return sdbBackups;
+    }
+
+    /**
+     * Groups the SDB keys by the path, relative to the root of the bucket, of the object that holds their json.
+     * Every SDB has its own object, except in packed backups where a segment object holds many SDBs.
+     */
+    protected Map<String, List<String>> groupByObjectPath(Map<String, SdbBackupEntry> sdbBackups) {
+        Map<String, List<String>> objectPathToSdbKeys = new LinkedHashMap<>();
+        sdbBackups.forEach((key, entry) -> {
+            String objectPath = entry.getPrefix() + '/' + (entry.getSegment() == null ? key : entry.getSegment());
+            objectPathToSdbKeys.computeIfAbsent(objectPath, path -> new LinkedList<>()).add(key);
+        });
+        return objectPathToSdbKeys;
+    }
+
+    /**
+     * Reads the stored, possibly compressed, json of a single SDB.
+     *
+     * @param objectPath The path of the object that holds the SDB's json
+     * @param sdbBackup The manifest entry of the SDB
+     * @param segment The content of the segment when it has already been downloaded, otherwise null
+     * @param s3StoreService The store to read from
+     */
+    protected byte[] getSdbBackupContent(String objectPath,
+                                         SdbBackupEntry sdbBackup,
+                                         byte[] segment,
+                                         S3StoreService s3StoreService) {
+
+        if (sdbBackup.getSegment() == null) {
+            return getObjectContent(objectPath, s3StoreService);
+        }
+
+        int offset = sdbBackup.getOffset().intValue();
+        int length = sdbBackup.getLength().intValue();
+        if (segment != null) {
+            return Arrays.copyOfRange(segment, offset, offset + length);
+        }
 
-        String backupApiUrl = backupMetadata.getOrDefault(CERBERUS_BACKUP_API_URL_S,
-                backupMetadata.getOrDefault(CERBERUS_BACKUP_API_URL, "unknown"));
-        String backupDate = backupMetadata.getOrDefault(CERBERUS_BACKUP_DATE_S,
-                backupMetadata.getOrDefault(CERBERUS_BACKUP_DATE, "unknown"));
-        String backupSdbCount = backupMetadata.getOrDefault(CERBERUS_BACKUP_SDB_COUNT_S,
-                backupMetadata.getOrDefault(CERBERUS_BACKUP_SDB_COUNT, "unknown"));
+        return s3StoreService.getBytes(objectPath, offset, offset + length - 1)
+                .orElseThrow(() -> new RuntimeException(
+                        String.format("Failed to get SDB backup from S3 segment: %s", objectPath)));
+    }
+
+    /**
+     * Use the metadata from the backup and ensure that the user wants to proceed
+     * @param backupMetadata - The backup metadata
+     */
+    private void validateRestore(JsonNode backupMetadata, RestoreCerberusBackupCommand command) {
+        String backupApiUrl = getMetadataValue(backupMetadata, CERBERUS_BACKUP_API_URL_S, CERBERUS_BACKUP_API_URL);
+        String backupDate = getMetadataValue(backupMetadata, CERBERUS_BACKUP_DATE_S, CERBERUS_BACKUP_DATE);
+        String backupSdbCount = getMetadataValue(backupMetadata, CERBERUS_BACKUP_SDB_COUNT_S, CERBERUS_BACKUP_SDB_COUNT);
 
         StringBuilder msg = new StringBuilder()
                 .append("\nThe backup you are attempting to restore was created from ").append(Chalk.on(backupApiUrl).green().toString()).append(" on ").append(Chalk.on(backupDate).green().bold().toString())
@@ -192,8 +365,17 @@ public class RestoreCerberusBackupOperation implements Operation<RestoreCerberus
         }
     }
 
-    private S3StoreService getS3EncryptionStoreService(String cmkId,
-                                                       RestoreCerberusBackupCommand command) {
+    /**
+     * Gets a value from the backup metadata, which was written with snake case keys by newer versions of the CLI
+     * and camel case keys by older versions.
+     */
+    private String getMetadataValue(JsonNode backupMetadata, String snakeCaseKey, String camelCaseKey) {
+        JsonNode value = backupMetadata.has(snakeCaseKey) ? backupMetadata.get(snakeCaseKey) : backupMetadata.get(camelCaseKey);
+        return value == null || value.isNull() ? "unknown" : value.asText();
+    }
+
+    private AmazonS3EncryptionClient getS3EncryptionClient(String cmkId,
+                                                           RestoreCerberusBackupCommand command) {
 
         Region region = Region.getRegion(Regions.fromName(command.getS3Region()));
         KMSEncryptionMaterialsProvider materialProvider = new KMSEncryptionMaterialsProvider(cmkId);
@@ -205,7 +387,7 @@ public class RestoreCerberusBackupOperation implements Operation<RestoreCerberus
                                 .withAwsKmsRegion(region))
                         .withRegion(region);
 
-        return new S3StoreService(encryptionClient, command.getS3Bucket(), command.getS3Prefix());
+        return encryptionClient;
     }
 
     private String getKmsCmkId(String path, S3StoreService s3StoreService) {
@@ -228,11 +410,23 @@ public class RestoreCerberusBackupOperation implements Operation<RestoreCerberus
     }
 
     private String getDecryptedJson(String sdbBackupKey, S3StoreService s3StoreService) {
-        Optional<String> json = s3StoreService.get(sdbBackupKey);
-        if (!json.isPresent()) {
-            logger.error("Failed to get json from S3 for {}", sdbBackupKey);
+        return toJson(sdbBackupKey, getObjectContent(sdbBackupKey, s3StoreService));
+    }
+
+    private byte[] getObjectContent(String path, S3StoreService s3StoreService) {
+        Optional<byte[]> content = s3StoreService.getBytes(path);
+        if (!content.isPresent()) {
+            logger.error("Failed to get json from S3 for {}", path);
+        }
+        return content.get();
+    }
+
+    private String toJson(String path, byte[] content) {
+        try {
+            return new String(content, ConfigConstants.DEFAULT_ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(String.format("Failed to decode json from S3 for %s", path), e);
         }
-        return json.get();
     }
 
     /**
@@ -242,34 +436,183 @@ public class RestoreCerberusBackupOperation implements Operation<RestoreCerberus
      * @param sdbBackupJson the json string from s3
      */
     protected void processBackup(String sdbBackupJson, CerberusAdminClient cerberusAdminClient) throws IOException {
+        processBackup(sdbBackupJson.getBytes(ConfigConstants.DEFAULT_ENCODING), BackupCompression.NONE,
+                cerberusAdminClient, false, new SecretCounts());
+    }
 
-        JsonNode sdb = objectMapper.readTree(sdbBackupJson);
+    /**
+     * Process the stored backup json
+     * Step 1: Restores the metadata to CMS
+     * Step 2: Restores the secrete data to Vault, by deleting all of the SDB's secrets and writing every secret in the
+     * backup, or when diffing, by reading the SDB's current secrets and only deleting and writing the ones that differ
+     *
+     * The stored backup is held in memory as it was downloaded, compressed, and parsed twice: once for the metadata
+     * and the backed up paths, and once to write the secrets. Both passes use a streaming parser rather than a tree, so
+     * the decoded secrets of only one path are held at a time as they are written to Vault. This does not bound memory
+     * by the largest path: the stored bytes grow with the SDB, and when diffing every secret the SDB currently has in
+     * Vault is read up front to compare against.
+     *
+     * @param sdbBackup the stored, possibly compressed, backup json from s3
+     * @param compression the codec the backup was compressed with
+     * @param diff Whether to only write the secrets that differ from what is in Vault
+     * @param counts The counts of secret paths written, deleted and skipped to add this SDB's to
+     */
+    protected void processBackup(byte[] sdbBackup,
+                                 BackupCompression compression,
+                                 CerberusAdminClient cerberusAdminClient,
+                                 boolean diff,
+                                 SecretCounts counts) throws IOException {
+
+        // the first pass reads everything but the secrets, so that the metadata is restored before any secrets are
+        // written, whatever order the fields were serialized in
+        ObjectNode sdbMetadata = objectMapper.createObjectNode();
+        Set<String> backedUpPaths = new HashSet<>();
+        try (JsonParser parser = createParser(sdbBackup, compression)) {
+            forEachField(parser, field -> {
+                if (SDB_DATA_FIELD.equals(field)) {
+                    forEachField(parser, path -> {
+                        backedUpPaths.add(path);
+                        parser.skipChildren();
+                    });
+                } else {
+                    sdbMetadata.set(field, parser.readValueAsTree());
+                }
+            });
+        }
 
         // restore metadata to cms
-        cerberusAdminClient.restoreMetadata(sdbBackupJson);
-        deleteAllSecrets(sdb.get("path").asText(), cerberusAdminClient);
-        // restore secret vault data
-        JsonNode data = sdb.get("data");
-        Map<String, Map<String, JsonNode>> kvPairs = objectMapper.convertValue(data,
-                new TypeReference<HashMap<String,Map<String, JsonNode>>>() {});
-
-        kvPairs.forEach((String path, Map<String, JsonNode> secretData) -> {
-            Map<String, Object> genericDataMap = new HashMap<>();
-            secretData.forEach((String key , JsonNode valueNode)-> {
-                if (valueNode.isObject()) {
-                    genericDataMap.put(key , objectMapper.convertValue(valueNode,
-                            new TypeReference<HashMap<Object,Object>>() {})
-                    );
-                } else if (valueNode.isTextual()) {
-                    genericDataMap.put(key , valueNode.textValue());
-                } else if (valueNode.isBoolean()) {
-                    genericDataMap.put(key , valueNode.booleanValue());
-                } else {
-                    throw new RuntimeException("Unexpected value type for secret value. Type: " + valueNode.getClass());
+        cerberusAdminClient.restoreMetadata(objectMapper.writer()
+                .without(SerializationFeature.INDENT_OUTPUT).writeValueAsString(sdbMetadata));
+        String sdbPath = sdbMetadata.get("path").asText();
+        Map<String, Map<String, Object>> secretsInVault = Collections.emptyMap();
+        if (diff) {
+            secretsInVault = readAllSecrets(sdbPath, cerberusAdminClient);
+            for (String path : secretsInVault.keySet()) {
+                if (! backedUpPaths.contains(path)) {
+                    cerberusAdminClient.delete(path);
+                    counts.deleted.incrementAndGet();
                 }
+            }
+        } else {
+            deleteAllSecrets(sdbPath, cerberusAdminClient);
+        }
+
+        // restore secret vault data, one path at a time
+        Map<String, Map<String, Object>> currentSecrets = secretsInVault;
+        try (JsonParser parser = createParser(sdbBackup, compression)) {
+            forEachField(parser, field -> {
+                if (! SDB_DATA_FIELD.equals(field)) {
+                    parser.skipChildren();
+                    return;
+                }
+                forEachField(parser, path -> {
+                    Map<String, JsonNode> secretData = parser.readValueAs(new TypeReference<HashMap<String, JsonNode>>() {});
+                    if (diff && isUnchanged(currentSecrets.get(path), secretData)) {
+                        counts.skipped.incrementAndGet();
+                        return;
+                    }
+                    cerberusAdminClient.writeJson(path, toGenericDataMap(secretData));
+                    counts.written.incrementAndGet();
+                });
             });
-            cerberusAdminClient.writeJson(path, genericDataMap);
+        }
+    }
+
+    private JsonParser createParser(byte[] sdbBackup, BackupCompression compression) throws IOException {
+        JsonParser parser = objectMapper.getFactory()
+                .createParser(compression.decompress(new ByteArrayInputStream(sdbBackup)));
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new RuntimeException("Expected the SDB backup json to be an object");
+        }
+        return parser;
+    }
+
+    /**
+     * Calls the consumer for every field of the object the parser is at, with the parser positioned on the field's
+     * value. The consumer must read or skip the whole value.
+     */
+    private void forEachField(JsonParser parser, FieldConsumer consumer) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_OBJECT && parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new RuntimeException("Expected a json object at: " + parser.getCurrentLocation());
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            consumer.accept(field);
+        }
+    }
+
+    private Map<String, Object> toGenericDataMap(Map<String, JsonNode> secretData) {
+        Map<String, Object> genericDataMap = new HashMap<>();
+        secretData.forEach((String key , JsonNode valueNode)-> {
+            if (valueNode.isObject()) {
+                genericDataMap.put(key , objectMapper.convertValue(valueNode,
+                        new TypeReference<HashMap<Object,Object>>() {})
+                );
+            } else if (valueNode.isTextual()) {
+                genericDataMap.put(key , valueNode.textValue());
+            } else if (valueNode.isBoolean()) {
+                genericDataMap.put(key , valueNode.booleanValue());
+            } else {
+                throw new RuntimeException("Unexpected value type for secret value. Type: " + valueNode.getClass());
+            }
         });
+        return genericDataMap;
+    }
+
+    @FunctionalInterface
+    private interface FieldConsumer {
+        void accept(String field) throws IOException;
+    }
+
+    /**
+     * Compares the secret data in Vault with the backup. Numbers are compared by value, since Vault's responses are
+     * parsed with every number as a double.
+     */
+    private boolean isUnchanged(Map<String, Object> secretInVault, Map<String, JsonNode> secretInBackup) {
+        if (secretInVault == null) {
+            return false;
+        }
+        JsonNode vaultNode = objectMapper.valueToTree(secretInVault);
+        JsonNode backupNode = objectMapper.valueToTree(secretInBackup);
+        return vaultNode.equals(NUMBERS_BY_VALUE, backupNode);
+    }
+
+    /**
+     * Reads all of the secrets from Vault stored at the safe deposit box's path.
+     *
+     * @param path path to start reading at.
+     * @return The secret data by path
+     */
+    protected Map<String, Map<String, Object>> readAllSecrets(final String path, CerberusAdminClient cerberusAdminClient) {
+        Map<String, Map<String, Object>> secrets = new HashMap<>();
+        try {
+            String fixedPath = path;
+
+            if (StringUtils.endsWith(path, "/")) {
+                fixedPath = StringUtils.substring(path, 0, StringUtils.lastIndexOf(path, "/"));
+            }
+
+            final VaultListResponse listResponse = cerberusAdminClient.list(fixedPath);
+            final List<String> keys = listResponse.getKeys();
+
+            if (keys == null || keys.isEmpty()) {
+                return secrets;
+            }
+
+            for (final String key : keys) {
+                if (StringUtils.endsWith(key, "/")) {
+                    final String fixedKey = StringUtils.substring(key, 0, key.lastIndexOf("/"));
+                    secrets.putAll(readAllSecrets(fixedPath + "/" + fixedKey, cerberusAdminClient));
+                } else {
+                    secrets.put(fixedPath + "/" + key,
+                            cerberusAdminClient.readDataGenerically(fixedPath + "/" + key).getData());
+                }
+            }
+        }  catch (VaultClientException vce) {
+            throw new RuntimeException("Failed to read secrets from Vault. for path: " + path);
+        }
+        return secrets;
     }
 
     /**
@@ -305,6 +648,43 @@ public class RestoreCerberusBackupOperation implements Operation<RestoreCerberus
         }
     }
 
+    /**
+     * Thread safe counts of the secret paths a restore has written, deleted and skipped as unchanged.
+     */
+    static final class SecretCounts {
+        final AtomicInteger written = new AtomicInteger();
+        final AtomicInteger deleted = new AtomicInteger();
+        final AtomicInteger skipped = new AtomicInteger();
+    }
+
+    /**
+     * The content of a segment that several SDBs are restored from, downloaded by the first worker that needs it and
+     * released once every SDB in it has been restored.
+     */
+    private static final class SharedSegment {
+        private final Supplier<byte[]> download;
+        private int remainingSdbs;
+        private byte[] content;
+
+        private SharedSegment(Supplier<byte[]> download, int sdbs) {
+            this.download = download;
+            this.remainingSdbs = sdbs;
+        }
+
+        private synchronized byte[] get() {
+            if (content == null) {
+                content = download.get();
+            }
+            return content;
+        }
+
+        private synchronized void release() {
+            if (--remainingSdbs == 0) {
+                content = null;
+            }
+        }
+    }
+
     @Override
     public boolean isRunnable(RestoreCerberusBackupCommand command) {
         return true;
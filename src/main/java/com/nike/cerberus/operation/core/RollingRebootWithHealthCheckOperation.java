@@ -11,26 +11,26 @@ import com.nike.cerberus.operation.Operation;
 import com.nike.cerberus.service.AutoScalingService;
 import com.nike.cerberus.service.CloudFormationService;
 import com.nike.cerberus.service.Ec2Service;
+import com.nike.cerberus.service.HealthCheckService;
 import com.nike.cerberus.store.ConfigStore;
 import com.nike.vault.client.http.HttpStatus;
-import okhttp3.Call;
-import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.Response;
-import org.apache.http.conn.ssl.NoopHostnameVerifier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
-import java.net.Proxy;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static com.nike.cerberus.service.CloudFormationService.MIN_INSTANCES_STACK_PARAMETER_KEY;
 import static com.nike.cerberus.service.Ec2Service.EC2_ASG_GROUP_NAME_TAG_KEY;
 import static com.nike.cerberus.service.Ec2Service.INSTANCE_STATE_FILTER_NAME;
 import static com.nike.cerberus.service.Ec2Service.INSTANCE_STATE_RUNNING_FILTER_VALUE;
+import static com.nike.cerberus.service.HealthCheckService.HEALTH_CHECK_FAILED_CODE;
 
 /**
  * Reboots all EC2 instances in the given cluster.
@@ -47,10 +47,6 @@ public class RollingRebootWithHealthCheckOperation implements Operation<RollingR
 //            StackName.CONSUL.getName(),  "http://%s:8580/v1/status/peers"
     );
 
-    private final static int DEFAULT_HTTP_TIMEOUT = 15;
-
-    private final static TimeUnit DEFAULT_HTTP_TIMEOUT_UNIT = TimeUnit.SECONDS;
-
     private final static int NUM_SECS_BETWEEN_HEALTH_CHECKS = 5;
 
     private final static int EXPECTED_NUM_SUCCESSES_AFTER_REBOOT = 10;
@@ -59,7 +55,10 @@ public class RollingRebootWithHealthCheckOperation implements Operation<RollingR
 
     private final static int EXPECTED_NUM_SUCCESSES_BEFORE_REBOOT = 1;
 
-    private final static int HEALTH_CHECK_FAILED_CODE = -1;
+    /**
+     * How many health checks to wait before giving up on an instance being healthy enough to be rebooted, 5 minutes.
+     */
+    private final static int MAX_HEALTH_CHECKS_BEFORE_REBOOT = 60;
 
     private final ConfigStore configStore;
 
@@ -69,19 +68,19 @@ public class RollingRebootWithHealthCheckOperation implements Operation<RollingR
 
     private final AutoScalingService autoScalingService;
 
-    private final Proxy proxy;
+    private final HealthCheckService healthCheckService;
 
     @Inject
     public RollingRebootWithHealthCheckOperation(final ConfigStore configStore,
                                                  final CloudFormationService cloudFormationService,
                                                  final Ec2Service ec2Service,
                                                  final AutoScalingService autoScalingService,
-                                                 final Proxy proxy) {
+                                                 final HealthCheckService healthCheckService) {
         this.configStore = configStore;
         this.cloudFormationService = cloudFormationService;
         this.ec2Service = ec2Service;
         this.autoScalingService = autoScalingService;
-        this.proxy = proxy;
+        this.healthCheckService = healthCheckService;
     }
 
     @Override
@@ -105,75 +104,160 @@ public class RollingRebootWithHealthCheckOperation implements Operation<RollingR
         final List<Instance> instances = ec2Service.getInstancesByTag(EC2_ASG_GROUP_NAME_TAG_KEY, autoScalingGroupId, isRunningFilter);
         logger.debug("Found {} instances by tag: '{}:{}'", instances.size(), EC2_ASG_GROUP_NAME_TAG_KEY, autoScalingGroupId);
 
+        final String healthCheckUrlTmpl = HEALTH_CHECK_MAP.get(stackName.getName());
+        final Map<String, String> healthCheckUrls = new LinkedHashMap<>();
+        final Map<String, InstanceHealth> instanceHealth = new LinkedHashMap<>();
+        instances.forEach(instance -> {
+            healthCheckUrls.put(instance.getInstanceId(), String.format(healthCheckUrlTmpl, instance.getPublicDnsName()));
+            instanceHealth.put(instance.getInstanceId(), new InstanceHealth());
+        });
+
+        final int batchSize = Math.min(command.getBatchSize(), command.getMaxUnavailable());
+        final List<List<Instance>> batches = getRebootBatches(instances, batchSize);
+        final int largestBatchSize = batches.stream().mapToInt(List::size).max().orElse(0);
+        logger.info("Rebooting {} instances in {} batches of up to {}", instances.size(), batches.size(), largestBatchSize);
+
         logger.info("Temporarily decreasing min instances for ASG: {}", autoScalingGroupId);
-        autoScalingService.updateMinInstancesForAutoScalingGroup(autoScalingGroupId, minInstances - 1);
+        autoScalingService.updateMinInstancesForAutoScalingGroup(autoScalingGroupId,
+                Math.max(0, minInstances - largestBatchSize));
 
-        instances.forEach(instance -> {
-            rebootInstance(stackName, autoScalingGroupId, instance);
+        batches.forEach(batch -> {
+            final List<String> instanceIds = batch.stream().map(Instance::getInstanceId).collect(Collectors.toList());
+            rebootInstances(autoScalingGroupId, instanceIds, healthCheckUrls, instanceHealth, command.getMaxUnavailable());
         });
 
         logger.info("Increasing min instances for ASG: {}", autoScalingGroupId);
         autoScalingService.updateMinInstancesForAutoScalingGroup(autoScalingGroupId, minInstances);
+
+        logger.info("Health check latency, {}", healthCheckService.getLatencySummary());
     }
 
     /**
-     * Reboot an instance and make sure it comes back healthy
+     * Splits the instances into batches of at most the given size, where every instance of a batch is in a different
+     * availability zone, so that rebooting a batch never takes down more than one instance in a zone.
+     *
+     * The zones with the most instances left are drawn from first, which keeps the number of batches as low as the
+     * zones allow.
      */
-    private void rebootInstance(StackName stackName, String autoScalingGroupId, Instance instance) {
+    static List<List<Instance>> getRebootBatches(final List<Instance> instances, final int batchSize) {
+        final Map<String, Deque<Instance>> instancesByZone = new LinkedHashMap<>();
+        instances.forEach(instance -> instancesByZone
+                .computeIfAbsent(instance.getPlacement().getAvailabilityZone(), zone -> new LinkedList<>())
+                .add(instance));
+
+        final List<List<Instance>> batches = new LinkedList<>();
+        while (instancesByZone.values().stream().anyMatch(zoneInstances -> ! zoneInstances.isEmpty())) {
+            final List<Instance> batch = instancesByZone.values().stream()
+                    .filter(zoneInstances -> ! zoneInstances.isEmpty())
+                    .sorted(Comparator.comparingInt(zoneInstances -> -zoneInstances.size()))
+                    .limit(batchSize)
+                    .map(Deque::poll)
+                    .collect(Collectors.toList());
+            batches.add(batch);
+        }
 
-        final String healthCheckUrlTmpl = HEALTH_CHECK_MAP.get(stackName.getName());
-        final String healthCheckUrl = String.format(healthCheckUrlTmpl, instance.getPublicDnsName());
+        return batches;
+    }
+
+    /**
+     * Reboot a batch of instances and make sure they all come back healthy
+     */
+    private void rebootInstances(final String autoScalingGroupId,
+                                 final List<String> instanceIds,
+                                 final Map<String, String> healthCheckUrls,
+                                 final Map<String, InstanceHealth> instanceHealth,
+                                 final int maxUnavailable) {
+
+        final String[] instanceIdArray = instanceIds.toArray(new String[instanceIds.size()]);
 
-        logger.info("Checking that instance health check is reachable...");
-        waitForHealthCheckStatusCode(healthCheckUrl, HttpStatus.OK, EXPECTED_NUM_SUCCESSES_BEFORE_REBOOT);
+        logger.info("Checking that instance health checks are reachable, and that no more than {} instances will be unavailable...",
+                maxUnavailable);
+        waitForHealthCheckStatusCode(instanceIds, healthCheckUrls, instanceHealth, HttpStatus.OK,
+                EXPECTED_NUM_SUCCESSES_BEFORE_REBOOT, maxUnavailable, MAX_HEALTH_CHECKS_BEFORE_REBOOT);
 
-        final String instanceId = instance.getInstanceId();
-        logger.info("Setting instance state to standby: {}", instanceId);
-        autoScalingService.setInstanceStateToStandby(autoScalingGroupId, instanceId);
+        logger.info("Setting instance state to standby: {}", instanceIds);
+        autoScalingService.setInstanceStateToStandby(autoScalingGroupId, instanceIdArray);
 
-        logger.info("Rebooting instance: {}", instanceId);
-        ec2Service.rebootEc2Instance(instanceId);
+        logger.info("Rebooting instances: {}", instanceIds);
+        instanceIds.forEach(id -> instanceHealth.get(id).failedAfterReboot = false);
+        ec2Service.rebootEc2Instance(instanceIdArray);
 
         // wait for health check fail to confirm box reboot
         logger.info("Waiting for health check failure to confirm reboot...");
-        waitForHealthCheckStatusCode(healthCheckUrl, HEALTH_CHECK_FAILED_CODE, EXPECTED_NUM_FAILURES_AFTER_REBOOT);
+        waitForRebootFailures(instanceIds, healthCheckUrls, instanceHealth);
 
         // wait for health check pass to confirm instance is healthy after reboot
         logger.warn(Chalk.on(
                 "If a proxy is required to talk to the EC2 instance, then make sure it is set up." +
                 " Otherwise this command will never succeed.").yellow().toString());
-        logger.info("Waiting for health check to pass again to confirm instance is healthy...");
-        waitForHealthCheckStatusCode(healthCheckUrl, HttpStatus.OK, EXPECTED_NUM_SUCCESSES_AFTER_REBOOT);
+        logger.info("Waiting for health check to pass again to confirm instances are healthy...");
+        waitForHealthCheckStatusCode(instanceIds, healthCheckUrls, instanceHealth, HttpStatus.OK,
+                EXPECTED_NUM_SUCCESSES_AFTER_REBOOT, Integer.MAX_VALUE, Integer.MAX_VALUE);
 
-        logger.info("Setting instance state to in-service: {}", instanceId);
-        autoScalingService.setInstanceStateToInService(autoScalingGroupId, instanceId);
+        logger.info("Setting instance state to in-service: {}", instanceIds);
+        autoScalingService.setInstanceStateToInService(autoScalingGroupId, instanceIdArray);
+        logger.info("Health check latency, {}", healthCheckService.getLatencySummary());
     }
 
     /**
-     * Poll the health check 'n' times, looking for the given response
-     * @param healthCheckUrl - The health check URL
-     * @param numConsecutiveResponsesExpected - The number of times to poll health check
+     * Poll the health checks of all the instances at once, until each of the given instances returns the given
+     * response 'n' times in a row
+     * @param instanceIds - The instances being waited on
+     * @param healthCheckUrls - The health check URLs by instance ID
+     * @param instanceHealth - The rolling health of each instance, updated with every poll
+     * @param numConsecutiveResponsesExpected - The number of times in a row the response is expected
+     * @param maxUnavailable - Also wait until the given instances, together with the other instances whose last
+     *                       health check failed, are no more than this many
+     * @param maxHealthChecks - The number of times to poll before failing with the instances that are holding up the
+     *                        wait
      */
-    private void waitForHealthCheckStatusCode(final String healthCheckUrl,
-                                              final long expectedStatusCode,
-                                              final int numConsecutiveResponsesExpected) {
-
-        int responseCode;
-        int consecutiveResponses = 0;
-        while (consecutiveResponses < numConsecutiveResponsesExpected) {
+    private void waitForHealthCheckStatusCode(final List<String> instanceIds,
+                                              final Map<String, String> healthCheckUrls,
+                                              final Map<String, InstanceHealth> instanceHealth,
+                                              final int expectedStatusCode,
+                                              final int numConsecutiveResponsesExpected,
+                                              final int maxUnavailable,
+                                              final int maxHealthChecks) {
+
+        for (int healthChecks = 1; ; healthChecks++) {
+            healthCheckService.checkAll(healthCheckUrls).forEach((id, responseCode) ->
+                    instanceHealth.get(id).update(responseCode));
+
+            final boolean isExpectedResponse = instanceIds.stream()
+                    .map(instanceHealth::get)
+                    .allMatch(health -> health.lastResponseCode == expectedStatusCode);
+            final boolean isRepeatedResponse = instanceIds.stream()
+                    .map(instanceHealth::get)
+                    .allMatch(health -> health.consecutiveResponses >= numConsecutiveResponsesExpected);
+            final List<String> unhealthyOthers = instanceHealth.entrySet().stream()
+                    .filter(entry -> ! instanceIds.contains(entry.getKey()))
+                    .filter(entry -> entry.getValue().lastResponseCode != HttpStatus.OK)
+                    .map(Map.Entry::getKey)
+                    .collect(Collectors.toList());
+            final boolean isAvailable = instanceIds.size() + unhealthyOthers.size() <= maxUnavailable;
+
+            if (isExpectedResponse && isRepeatedResponse && isAvailable) {
+                return;
+            }
 
-            responseCode = executeHealthCheck(healthCheckUrl);
+            if (healthChecks >= maxHealthChecks) {
+                final List<String> unexpectedInstances = instanceIds.stream()
+                        .filter(id -> instanceHealth.get(id).lastResponseCode != expectedStatusCode)
+                        .collect(Collectors.toList());
+                throw new RuntimeException(String.format("Gave up after %s health checks, instances not returning %s: %s, " +
+                        "other unhealthy instances: %s, max unavailable: %s",
+                        healthChecks, expectedStatusCode, unexpectedInstances, unhealthyOthers, maxUnavailable));
+            }
 
-            if (responseCode == expectedStatusCode) {
-                consecutiveResponses++;
-            } else if (consecutiveResponses > 0) {
+            if (! isExpectedResponse) {
                 final String message = Chalk.on("Instance health check did not repeat response code ({}), {} times").red().bold().toString();
                 logger.debug(message, expectedStatusCode, numConsecutiveResponsesExpected);
-                consecutiveResponses = 0;
+            } else if (! isAvailable) {
+                logger.debug("Waiting for the other instances to be healthy: {}", instanceHealth);
             }
 
             try {
-                TimeUnit.SECONDS.sleep(NUM_SECS_BETWEEN_HEALTH_CHECKS);
+                waitBetweenHealthChecks();
             } catch (InterruptedException ie) {
                 logger.error(Chalk.on("Timeout between health checks has been interrupted").red().bold().toString());
                 return;
@@ -182,36 +266,38 @@ public class RollingRebootWithHealthCheckOperation implements Operation<RollingR
     }
 
     /**
-     * Execute the given health check
-     * @param healthCheckUrl - Name of that EC2 instance belongs to
-     * @return - Response code of the health check
+     * Poll the health checks of all the instances at once, until each of the given instances has failed its health
+     * check 'n' times in a row since it was rebooted. The instances do not have to be down at the same time, an
+     * instance that comes back before another has gone down has still confirmed its reboot.
+     * @param instanceIds - The instances that were rebooted
+     * @param healthCheckUrls - The health check URLs by instance ID
+     * @param instanceHealth - The rolling health of each instance, updated with every poll
      */
-    private int executeHealthCheck(final String healthCheckUrl) {
-
-        final OkHttpClient okHttpClient = new OkHttpClient.Builder()
-                .hostnameVerifier(new NoopHostnameVerifier())
-                .proxy(proxy)
-                .connectTimeout(DEFAULT_HTTP_TIMEOUT, DEFAULT_HTTP_TIMEOUT_UNIT)
-                .writeTimeout(DEFAULT_HTTP_TIMEOUT, DEFAULT_HTTP_TIMEOUT_UNIT)
-                .readTimeout(DEFAULT_HTTP_TIMEOUT, DEFAULT_HTTP_TIMEOUT_UNIT)
-                .build();
-
-        final Request requestBuilder = new Request.Builder()
-                .url(healthCheckUrl)
-                .get()
-                .build();
-
-        final Call healthCheckCall = okHttpClient.newCall(requestBuilder);
-
-        try(final Response response = healthCheckCall.execute()) {
-            logger.debug("Health check returned status: {}, URL: {}", response.code(), healthCheckUrl);
-            return response.code();
-        } catch (IOException ioe) {
-            final String message = Chalk.on("Health check failed, Cause: \"{}\", URL: {}").red().toString();
-            logger.debug(message, ioe.getMessage(), healthCheckUrl);
+    private void waitForRebootFailures(final List<String> instanceIds,
+                                       final Map<String, String> healthCheckUrls,
+                                       final Map<String, InstanceHealth> instanceHealth) {
+
+        while (true) {
+            healthCheckService.checkAll(healthCheckUrls).forEach((id, responseCode) ->
+                    instanceHealth.get(id).update(responseCode));
+
+            if (instanceIds.stream().map(instanceHealth::get).allMatch(health -> health.failedAfterReboot)) {
+                return;
+            }
+            logger.debug("Waiting for the health checks of the rebooted instances to fail {} times in a row: {}",
+                    EXPECTED_NUM_FAILURES_AFTER_REBOOT, instanceHealth);
+
+            try {
+                waitBetweenHealthChecks();
+            } catch (InterruptedException ie) {
+                logger.error(Chalk.on("Timeout between health checks has been interrupted").red().bold().toString());
+                return;
+            }
         }
+    }
 
-        return HEALTH_CHECK_FAILED_CODE;
+    protected void waitBetweenHealthChecks() throws InterruptedException {
+        TimeUnit.SECONDS.sleep(NUM_SECS_BETWEEN_HEALTH_CHECKS);
     }
 
     @Override
@@ -225,6 +311,9 @@ public class RollingRebootWithHealthCheckOperation implements Operation<RollingR
         if (! HEALTH_CHECK_MAP.containsKey(stackNameStr)) {
             logger.error("Cannot reboot cluster: {}. Allowed stacks: {}", stackName, HEALTH_CHECK_MAP.keySet());
             return false;
+        } else if (command.getBatchSize() < 1 || command.getMaxUnavailable() < 1) {
+            logger.error("The batch size and max unavailable instances must be at least 1");
+            return false;
         } else if (! stackParameters.containsKey(MIN_INSTANCES_STACK_PARAMETER_KEY)) {
             logger.error("Could not find parameter 'minInstances' on stack: {}", stackId);
             return false;
@@ -232,4 +321,30 @@ public class RollingRebootWithHealthCheckOperation implements Operation<RollingR
             return true;
         }
     }
+
+    /**
+     * The last health check response of an instance, how many times in a row it has been returned, and whether the
+     * instance has failed enough health checks in a row since its reboot to confirm it went down.
+     */
+    private static final class InstanceHealth {
+
+        private int lastResponseCode = HEALTH_CHECK_FAILED_CODE;
+
+        private int consecutiveResponses = 0;
+
+        private boolean failedAfterReboot = false;
+
+        private void update(final int responseCode) {
+            consecutiveResponses = responseCode == lastResponseCode ? consecutiveResponses + 1 : 1;
+            lastResponseCode = responseCode;
+            if (responseCode == HEALTH_CHECK_FAILED_CODE && consecutiveResponses >= EXPECTED_NUM_FAILURES_AFTER_REBOOT) {
+                failedAfterReboot = true;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s x%s", lastResponseCode, consecutiveResponses);
+        }
+    }
 }
@@ -17,6 +17,8 @@
 package com.nike.cerberus.operation.core;
 
 import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.cloudformation.model.Change;
+import com.amazonaws.services.cloudformation.model.ResourceChange;
 import com.amazonaws.services.cloudformation.model.StackStatus;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -38,6 +40,7 @@ import com.nike.cerberus.operation.UnexpectedCloudFormationStatusException;
 import com.nike.cerberus.service.CloudFormationService;
 import com.nike.cerberus.service.Ec2UserDataService;
 import com.nike.cerberus.service.AmiTagCheckService;
+import com.nike.cerberus.service.ConsoleService;
 import com.nike.cerberus.store.ConfigStore;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -45,9 +48,11 @@ import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 import static com.amazonaws.services.cloudformation.model.StackStatus.*;
 import static com.nike.cerberus.ConfigConstants.CERT_PART_PUBKEY;
@@ -74,17 +79,21 @@ public class UpdateStackOperation implements Operation<UpdateStackCommand> {
 
     private final AmiTagCheckService amiTagCheckService;
 
+    private final ConsoleService console;
+
     @Inject
     public UpdateStackOperation(final ConfigStore configStore,
                                 final CloudFormationService cloudFormationService,
                                 @Named(CF_OBJECT_MAPPER) final ObjectMapper cloudformationObjectMapper,
                                 final Ec2UserDataService ec2UserDataService,
-                                final AmiTagCheckService amiTagCheckService) {
+                                final AmiTagCheckService amiTagCheckService,
+                                final ConsoleService console) {
         this.configStore = configStore;
         this.cloudFormationService = cloudFormationService;
         this.cloudformationObjectMapper = cloudformationObjectMapper;
         this.ec2UserDataService = ec2UserDataService;
         this.amiTagCheckService = amiTagCheckService;
+        this.console = console;
 
         stackParameterMap = new HashMap<>();
         stackParameterMap.put(StackName.CONSUL, ConsulParameters.class);
@@ -122,13 +131,35 @@ public class UpdateStackOperation implements Operation<UpdateStackCommand> {
 
         parameters.putAll(command.getDynamicParameters());
 
+        final String templatePath = command.isOverwriteTemplate() ? stackTemplatePathMap.get(command.getStackName()) : null;
+
+        if (cloudFormationService.isStackUpToDate(stackId, parameters, templatePath)) {
+            logger.info("The {} stack already has the parameters and template of the update, skipping it.",
+                    command.getStackName().getName());
+            return;
+        }
+
         try {
             logger.info("Starting the update for {}.", command.getStackName().getName());
 
-            if (command.isOverwriteTemplate()) {
-                cloudFormationService.updateStack(stackId, parameters, stackTemplatePathMap.get(command.getStackName()), true);
+            if (command.isPreviewChanges()) {
+                final String changeSetId = cloudFormationService.createChangeSet(stackId, parameters, templatePath, true);
+                final Optional<List<Change>> changes = cloudFormationService.waitForChangeSet(changeSetId);
+
+                if (! changes.isPresent()) {
+                    logger.warn("CloudFormation reported no changes detected.");
+                    return;
+                }
+
+                changes.get().forEach(this::logChange);
+                if (! isChangeSetConfirmed(command)) {
+                    logger.info("The update was not confirmed, deleting the change set.");
+                    cloudFormationService.deleteChangeSet(changeSetId);
+                    return;
+                }
+                cloudFormationService.executeChangeSet(stackId, changeSetId);
             } else {
-                cloudFormationService.updateStack(stackId, parameters, true);
+                cloudFormationService.updateStack(stackId, parameters, templatePath, true);
             }
 
             final StackStatus endStatus =
@@ -159,6 +190,32 @@ public class UpdateStackOperation implements Operation<UpdateStackCommand> {
         }
     }
 
+    /**
+     * Asks the user whether to apply the previewed changes to the stack.
+     */
+    private boolean isChangeSetConfirmed(final UpdateStackCommand command) {
+        logger.info("Type \"proceed\" to apply these changes to the {} stack, anything else will cancel the update",
+                command.getStackName().getName());
+
+        final String proceed;
+        try {
+            proceed = console.readLine("");
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to validate that the user wanted to proceed with the update", e);
+        }
+
+        return "proceed".equalsIgnoreCase(proceed);
+    }
+
+    private void logChange(final Change change) {
+        final ResourceChange resourceChange = change.getResourceChange();
+        logger.info("Change: {} {} {}, Replacement: {}",
+                resourceChange.getAction(),
+                resourceChange.getResourceType(),
+                resourceChange.getLogicalResourceId(),
+                StringUtils.defaultIfBlank(resourceChange.getReplacement(), "N/A"));
+    }
+
     @Override
     public boolean isRunnable(final UpdateStackCommand command) {
         boolean isRunnable = true;
@@ -61,8 +61,10 @@ public class InitVaultClusterOperation implements Operation<InitVaultClusterComm
                 clients.get(0).init(ConfigConstants.VAULT_SECRET_SHARES, ConfigConstants.VAULT_SECRET_THRESHOLD);
 
         logger.info("Uploading Vault root token and keys to configuration bucket.");
-        configStore.storeVaultRootToken(initResponse.getRootToken());
-        configStore.storeVaultKeys(initResponse.getKeys());
+        configStore.updateSecrets(secrets -> {
+            secrets.getVault().setRootToken(initResponse.getRootToken());
+            secrets.getVault().setKeys(initResponse.getKeys());
+        });
 
         logger.info("Uploading complete.");
     }
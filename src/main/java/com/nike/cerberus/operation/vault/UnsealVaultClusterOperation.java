@@ -16,16 +16,24 @@
 
 package com.nike.cerberus.operation.vault;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.nike.cerberus.command.vault.UnsealVaultClusterCommand;
 import com.nike.cerberus.operation.Operation;
 import com.nike.cerberus.store.ConfigStore;
 import com.nike.cerberus.vault.VaultAdminClientFactory;
 import com.nike.vault.client.VaultAdminClient;
+import com.nike.vault.client.model.VaultSealStatusResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
 
 /**
  * Operation to unseal the Vault cluster.
@@ -54,15 +62,60 @@ public class UnsealVaultClusterOperation implements Operation<UnsealVaultCluster
         final List<VaultAdminClient> clients = vaultAdminClientFactory.getClientsForCluster();
 
         logger.info("Unsealing each Vault instance.");
-        clients.forEach(client ->
-            vaultKeys.forEach(vaultKey -> client.unseal(vaultKey, false))
-        );
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, clients.size()),
+                new ThreadFactoryBuilder().setNameFormat("vault-unseal-%d").setDaemon(true).build());
+        final Map<String, CompletableFuture<Void>> unseals = new LinkedHashMap<>();
+
+        try {
+            // the keys have to reach an instance in order, but the instances are unsealed independently of each other
+            clients.forEach(client -> unseals.put(client.getVaultUrl(),
+                    CompletableFuture.runAsync(() -> unseal(client, vaultKeys), executor)));
+
+            CompletableFuture.allOf(unseals.values().toArray(new CompletableFuture[unseals.size()]))
+                    .handle((result, throwable) -> null)
+                    .join();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final List<String> failedInstances = unseals.entrySet().stream()
+                .filter(unseal -> unseal.getValue().isCompletedExceptionally())
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+
+        if (! failedInstances.isEmpty()) {
+            throw new RuntimeException(String.format("Failed to unseal the Vault instances: %s", failedInstances));
+        }
 
         logger.info("Unsealing complete.");
     }
 
+    private void unseal(final VaultAdminClient client, final List<String> vaultKeys) {
+        final String vaultUrl = client.getVaultUrl();
+        final long start = System.currentTimeMillis();
+
+        try {
+            for (final String vaultKey : vaultKeys) {
+                final VaultSealStatusResponse sealStatus = client.unseal(vaultKey, false);
+                if (! sealStatus.isSealed()) {
+                    logger.info("{} is unsealed after {} ms", vaultUrl, System.currentTimeMillis() - start);
+                    return;
+                }
+                logger.info("{} unseal progress: {} of {} keys", vaultUrl, sealStatus.getProgress(), sealStatus.getT());
+            }
+        } catch (RuntimeException e) {
+            logger.error(String.format("Failed to unseal %s after %s ms", vaultUrl, System.currentTimeMillis() - start), e);
+            throw e;
+        }
+
+        final String message = String.format("%s is still sealed after all %s unseal keys were submitted",
+                vaultUrl, vaultKeys.size());
+        logger.error(message);
+        throw new RuntimeException(message);
+    }
+
     @Override
     public boolean isRunnable(final UnsealVaultClusterCommand command) {
-        return !vaultAdminClientFactory.getClientsForCluster().isEmpty();
+        return vaultAdminClientFactory.hasVaultInstances();
     }
 }
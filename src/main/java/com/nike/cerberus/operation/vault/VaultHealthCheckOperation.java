@@ -79,6 +79,11 @@ public class VaultHealthCheckOperation implements Operation<VaultHealthCheckComm
             } catch (InterruptedException e) {
                 break;
             }
+
+            if (command.isPoll()) {
+                // pick up instances that were replaced since the last poll
+                vaultAdminClientFactory.refreshInstances();
+            }
         } while (command.isPoll());
     }
 
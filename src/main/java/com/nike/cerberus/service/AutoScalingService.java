@@ -94,12 +94,12 @@ public class AutoScalingService {
      * and a new instance is not spun up on instance reboot. This also removes the instance from the ELB, so that the
      * instance is not terminated when the health check fails.
      * @param logicalId - Name of the auto scaling group
-     * @param instanceId - ID of the EC2 instance
+     * @param instanceIds - IDs of the EC2 instances
      */
-    public void setInstanceStateToStandby(final String logicalId, final String instanceId) {
+    public void setInstanceStateToStandby(final String logicalId, final String... instanceIds) {
         final EnterStandbyRequest request = new EnterStandbyRequest()
                 .withAutoScalingGroupName(logicalId)
-                .withInstanceIds(instanceId)
+                .withInstanceIds(instanceIds)
                 .withShouldDecrementDesiredCapacity(true);
 
         autoScalingClient.enterStandby(request);
@@ -109,12 +109,12 @@ public class AutoScalingService {
      * Signify that the EC2 instance is now in service and ready to be re-added to the ELB and AutoScaling group. This
      * will also increase the desired instance count for the ASG.
      * @param logicalId - Name of the auto scaling group
-     * @param instanceId - ID of the EC2 instance
+     * @param instanceIds - IDs of the EC2 instances
      */
-    public void setInstanceStateToInService(final String logicalId, final String instanceId) {
+    public void setInstanceStateToInService(final String logicalId, final String... instanceIds) {
         final ExitStandbyRequest request = new ExitStandbyRequest()
                 .withAutoScalingGroupName(logicalId)
-                .withInstanceIds(instanceId);
+                .withInstanceIds(instanceIds);
 
         autoScalingClient.exitStandby(request);
     }
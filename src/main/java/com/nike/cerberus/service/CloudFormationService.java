@@ -18,13 +18,22 @@ package com.nike.cerberus.service;
 
 import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.cloudformation.AmazonCloudFormation;
+import com.amazonaws.services.cloudformation.model.Change;
+import com.amazonaws.services.cloudformation.model.ChangeSetStatus;
+import com.amazonaws.services.cloudformation.model.ChangeSetType;
+import com.amazonaws.services.cloudformation.model.CreateChangeSetRequest;
 import com.amazonaws.services.cloudformation.model.CreateStackRequest;
 import com.amazonaws.services.cloudformation.model.CreateStackResult;
+import com.amazonaws.services.cloudformation.model.DeleteChangeSetRequest;
 import com.amazonaws.services.cloudformation.model.DeleteStackRequest;
+import com.amazonaws.services.cloudformation.model.DescribeChangeSetRequest;
+import com.amazonaws.services.cloudformation.model.DescribeChangeSetResult;
 import com.amazonaws.services.cloudformation.model.DescribeStackEventsRequest;
 import com.amazonaws.services.cloudformation.model.DescribeStackEventsResult;
 import com.amazonaws.services.cloudformation.model.DescribeStacksRequest;
 import com.amazonaws.services.cloudformation.model.DescribeStacksResult;
+import com.amazonaws.services.cloudformation.model.ExecuteChangeSetRequest;
+import com.amazonaws.services.cloudformation.model.GetTemplateRequest;
 import com.amazonaws.services.cloudformation.model.Output;
 import com.amazonaws.services.cloudformation.model.Parameter;
 import com.amazonaws.services.cloudformation.model.Stack;
@@ -35,7 +44,6 @@ import com.beust.jcommander.internal.Maps;
 import com.github.tomaslanger.chalk.Chalk;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
 import com.nike.cerberus.ConfigConstants;
 import com.nike.cerberus.domain.EnvironmentMetadata;
 import org.apache.commons.io.IOUtils;
@@ -47,21 +55,27 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
+import javax.inject.Singleton;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
  * Service wrapper for AWS CloudFormation.
  */
+@Singleton
 public class CloudFormationService {
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
@@ -70,8 +84,28 @@ public class CloudFormationService {
 
     public final static String MIN_INSTANCES_STACK_PARAMETER_KEY = "minimumInstances";
 
+    /**
+     * How long a stack description is reused for. Stacks are only changed through this service within a run, which
+     * invalidates the description, so this only bounds how stale a description of a stack changed elsewhere can be.
+     */
+    private static final long STACK_CACHE_TTL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final long MIN_POLL_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(2);
+
+    private static final long MAX_POLL_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(20);
+
+    private static final long CHANGE_SET_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * CloudFormation fails a change set with this reason when applying it would not change the stack.
+     */
+    private static final String NO_CHANGES_CHANGE_SET_REASON = "didn't contain changes";
+
     private final AmazonCloudFormation cloudFormationClient;
     private final EnvironmentMetadata environmentMetadata;
+    private final Map<String, CachedStack> stackCache = new ConcurrentHashMap<>();
+    private final Object stackOutputIndexLock = new Object();
+    private volatile Map<String, String> stackOutputIndex;
 
     @Inject
     public CloudFormationService(final AmazonCloudFormation cloudFormationClient,
@@ -104,6 +138,7 @@ public class CloudFormationService {
         }
 
         final CreateStackResult result = cloudFormationClient.createStack(request);
+        invalidateStack(name);
         return result.getStackId();
     }
 
@@ -146,6 +181,141 @@ public class CloudFormationService {
         }
 
         cloudFormationClient.updateStack(request);
+        invalidateStack(stackId);
+    }
+
+    /**
+     * Checks if updating the stack would change nothing, in which case the update can be skipped without asking
+     * CloudFormation to update the stack and waiting for it to report that there was nothing to do.
+     *
+     * @param stackId Stack ID.
+     * @param parameters The input parameters of the update.
+     * @param templatePath Path to the JSON template of the update, null when the deployed template is kept.
+     * @return true if the stack already has the parameters and template
+     */
+    public boolean isStackUpToDate(final String stackId,
+                                   final Map<String, String> parameters,
+                                   @Nullable final String templatePath) {
+        // parameters that are left out of an update go back to their defaults, so the maps must match exactly
+        if (! getStackParameters(stackId).equals(parameters)) {
+            return false;
+        }
+
+        if (StringUtils.isBlank(templatePath)) {
+            return true;
+        }
+
+        final String deployedTemplate = cloudFormationClient
+                .getTemplate(new GetTemplateRequest().withStackName(stackId))
+                .getTemplateBody();
+
+        return StringUtils.equals(deployedTemplate, getTemplateText(templatePath));
+    }
+
+    /**
+     * Creates a change set that previews the update of an existing stack, without changing the stack.
+     *
+     * @param stackId Stack ID.
+     * @param parameters Input parameters.
+     * @param templatePath Path to the JSON template of the stack, null to keep the deployed template.
+     * @return Change set ID
+     */
+    public String createChangeSet(final String stackId,
+                                  final Map<String, String> parameters,
+                                  @Nullable final String templatePath,
+                                  final boolean iamCapabilities) {
+        final CreateChangeSetRequest request = new CreateChangeSetRequest()
+                .withStackName(stackId)
+                .withChangeSetName(String.format("update-%s", DateTime.now(DateTimeZone.UTC).getMillis()))
+                .withChangeSetType(ChangeSetType.UPDATE)
+                .withParameters(convertParameters(parameters));
+
+        if (StringUtils.isNotBlank(templatePath)) {
+            request.withTemplateBody(getTemplateText(templatePath));
+        } else {
+            request.withUsePreviousTemplate(true);
+        }
+
+        if (iamCapabilities) {
+            request.getCapabilities().add("CAPABILITY_IAM");
+        }
+
+        return cloudFormationClient.createChangeSet(request).getId();
+    }
+
+    /**
+     * Blocking call that waits for CloudFormation to work out the changes of a change set.
+     *
+     * @param changeSetId Change set ID.
+     * @return The resource changes, empty if the change set would not change the stack, in which case it is deleted
+     */
+    public Optional<List<Change>> waitForChangeSet(final String changeSetId) {
+        final long timeout = System.currentTimeMillis() + CHANGE_SET_TIMEOUT_MILLIS;
+
+        while (true) {
+            final DescribeChangeSetResult result = cloudFormationClient.describeChangeSet(
+                    new DescribeChangeSetRequest().withChangeSetName(changeSetId));
+            final ChangeSetStatus status = ChangeSetStatus.fromValue(result.getStatus());
+
+            if (status == ChangeSetStatus.CREATE_COMPLETE) {
+                return Optional.of(getChanges(changeSetId, result));
+            }
+
+            if (status == ChangeSetStatus.FAILED) {
+                if (StringUtils.contains(result.getStatusReason(), NO_CHANGES_CHANGE_SET_REASON)) {
+                    deleteChangeSet(changeSetId);
+                    return Optional.empty();
+                }
+
+                throw new RuntimeException(String.format("Failed to create the change set: %s, reason: %s",
+                        changeSetId, result.getStatusReason()));
+            }
+
+            if (System.currentTimeMillis() > timeout) {
+                throw new RuntimeException(String.format("Timed out waiting for the change set: %s, status: %s",
+                        changeSetId, status));
+            }
+
+            try {
+                TimeUnit.MILLISECONDS.sleep(MIN_POLL_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                logger.warn("Thread sleep interrupted. Continuing...", e);
+            }
+        }
+    }
+
+    private List<Change> getChanges(final String changeSetId, final DescribeChangeSetResult firstPage) {
+        final List<Change> changes = new LinkedList<>(firstPage.getChanges());
+        String nextToken = firstPage.getNextToken();
+
+        while (nextToken != null) {
+            final DescribeChangeSetResult page = cloudFormationClient.describeChangeSet(
+                    new DescribeChangeSetRequest().withChangeSetName(changeSetId).withNextToken(nextToken));
+            changes.addAll(page.getChanges());
+            nextToken = page.getNextToken();
+        }
+
+        return changes;
+    }
+
+    /**
+     * Applies a change set to its stack.
+     *
+     * @param stackId Stack ID.
+     * @param changeSetId Change set ID.
+     */
+    public void executeChangeSet(final String stackId, final String changeSetId) {
+        cloudFormationClient.executeChangeSet(new ExecuteChangeSetRequest().withChangeSetName(changeSetId));
+        invalidateStack(stackId);
+    }
+
+    /**
+     * Deletes a change set without applying it.
+     *
+     * @param changeSetId Change set ID.
+     */
+    public void deleteChangeSet(final String changeSetId) {
+        cloudFormationClient.deleteChangeSet(new DeleteChangeSetRequest().withChangeSetName(changeSetId));
     }
 
     /**
@@ -156,6 +326,7 @@ public class CloudFormationService {
     public void deleteStack(final String stackId) {
         final DeleteStackRequest request = new DeleteStackRequest().withStackName(stackId);
         cloudFormationClient.deleteStack(request);
+        invalidateStack(stackId);
     }
 
     /**
@@ -166,13 +337,11 @@ public class CloudFormationService {
      */
     @Nullable
     public StackStatus getStackStatus(final String stackId) {
-        final DescribeStacksRequest request = new DescribeStacksRequest().withStackName(stackId);
-
         try {
-            final DescribeStacksResult result = cloudFormationClient.describeStacks(request);
+            final Optional<Stack> stack = describeStack(stackId);
 
-            if (result.getStacks().size() > 0) {
-                final String status = result.getStacks().get(0).getStackStatus();
+            if (stack.isPresent()) {
+                final String status = stack.get().getStackStatus();
 
                 if (StringUtils.isNotBlank(status)) {
                     return StackStatus.fromValue(status);
@@ -195,15 +364,10 @@ public class CloudFormationService {
      * @return Stack outputs data.
      */
     public Map<String, String> getStackParameters(final String stackId) {
-        final DescribeStacksRequest request = new DescribeStacksRequest().withStackName(stackId);
-        final DescribeStacksResult result = cloudFormationClient.describeStacks(request);
         final Map<String, String> parameters = Maps.newHashMap();
 
-        if (result.getStacks().size() > 0) {
-            parameters.putAll(result.getStacks().get(0).getParameters().stream().collect(
-                    Collectors.toMap(Parameter::getParameterKey, Parameter::getParameterValue)));
-
-        }
+        describeStack(stackId).ifPresent(stack -> parameters.putAll(stack.getParameters().stream().collect(
+                Collectors.toMap(Parameter::getParameterKey, Parameter::getParameterValue))));
 
         return parameters;
     }
@@ -215,17 +379,52 @@ public class CloudFormationService {
      * @return Stack outputs data.
      */
     public Map<String, String> getStackOutputs(final String stackId) {
-        final DescribeStacksRequest request = new DescribeStacksRequest().withStackName(stackId);
-        final DescribeStacksResult result = cloudFormationClient.describeStacks(request);
         final Map<String, String> outputs = Maps.newHashMap();
 
-        if (result.getStacks().size() > 0) {
-            outputs.putAll(result.getStacks().get(0).getOutputs().stream().collect(
-                    Collectors.toMap(Output::getOutputKey, Output::getOutputValue)));
+        describeStack(stackId).ifPresent(stack -> outputs.putAll(stack.getOutputs().stream().collect(
+                Collectors.toMap(Output::getOutputKey, Output::getOutputValue))));
+
+        return outputs;
+    }
+
+    /**
+     * Describes a stack, reusing the description of the stack from the last few seconds if there is one, so that the
+     * status, parameters and outputs of a stack can be read together with one call to CloudFormation.
+     *
+     * @param stackId Stack ID or name.
+     * @return The stack, if CloudFormation returned one
+     */
+    private Optional<Stack> describeStack(final String stackId) {
+        final CachedStack cachedStack = stackCache.get(stackId);
+        if (cachedStack != null && cachedStack.describedAt + STACK_CACHE_TTL_MILLIS > System.currentTimeMillis()) {
+            return Optional.of(cachedStack.stack);
+        }
+
+        final DescribeStacksRequest request = new DescribeStacksRequest().withStackName(stackId);
+        final DescribeStacksResult result = cloudFormationClient.describeStacks(request);
 
+        if (result.getStacks().isEmpty()) {
+            stackCache.remove(stackId);
+            return Optional.empty();
         }
 
-        return outputs;
+        final Stack stack = result.getStacks().get(0);
+        stackCache.put(stackId, new CachedStack(stack, System.currentTimeMillis()));
+        return Optional.of(stack);
+    }
+
+    /**
+     * Forgets the cached description of a stack, so that the next read describes the stack again. A stack may have
+     * been described by both its name and its ID, so every description of the stack is forgotten, whichever of the
+     * two it was read by.
+     *
+     * @param stackId Stack ID or name.
+     */
+    public void invalidateStack(final String stackId) {
+        stackCache.remove(stackId);
+        stackCache.values().removeIf(cachedStack -> stackId.equals(cachedStack.stack.getStackId())
+                || stackId.equals(cachedStack.stack.getStackName()));
+        stackOutputIndex = null;
     }
 
     /**
@@ -321,77 +520,128 @@ public class CloudFormationService {
      * @return The value for the export if found
      */
     public Optional<String> searchStacksForOutput(String outputKey) {
-        DescribeStacksResult describeStacksResult = null;
-        do {
-            DescribeStacksRequest request = new DescribeStacksRequest();
-            if (describeStacksResult != null && describeStacksResult.getNextToken() != null) {
-                request.withNextToken(describeStacksResult.getNextToken());
-            }
-            describeStacksResult = cloudFormationClient.describeStacks();
-            for (Stack stack : describeStacksResult.getStacks()) {
-                for (Output output : stack.getOutputs()) {
-                    if (StringUtils.equals(output.getOutputKey(), outputKey)) {
-                        return Optional.of(output.getOutputValue());
-                    }
-                }
-            }
+        return Optional.ofNullable(getStackOutputIndex().get(outputKey));
+    }
 
-        } while (describeStacksResult.getNextToken() != null);
+    /**
+     * Indexes the outputs of every stack in the account by output key, with one pass over all of the pages of stacks.
+     * The index is kept until a stack is changed through this service. When several stacks have the same output key,
+     * the first stack listed wins.
+     */
+    private Map<String, String> getStackOutputIndex() {
+        Map<String, String> index = stackOutputIndex;
+        if (index != null) {
+            return index;
+        }
 
-        return Optional.empty();
+        synchronized (stackOutputIndexLock) {
+            if (stackOutputIndex == null) {
+                final Map<String, String> outputs = Maps.newHashMap();
+                String nextToken = null;
+                do {
+                    final DescribeStacksResult result =
+                            cloudFormationClient.describeStacks(new DescribeStacksRequest().withNextToken(nextToken));
+                    for (final Stack stack : result.getStacks()) {
+                        stack.getOutputs().forEach(output ->
+                                outputs.putIfAbsent(output.getOutputKey(), output.getOutputValue()));
+                    }
+                    nextToken = result.getNextToken();
+                } while (nextToken != null);
+
+                logger.debug("Indexed {} stack outputs", outputs.size());
+                stackOutputIndex = Collections.unmodifiableMap(outputs);
+            }
+            return stackOutputIndex;
+        }
     }
 
     /**
-     * Blocking call that waits for a stack change to complete.  Times out if waiting more than 30 minutes.
+     * Blocking call that waits for a stack change to complete.  Times out if waiting more than 90 minutes.
      *
      * @param endStatuses Status to end on
      * @return The final status
      */
     public StackStatus waitForStatus(final String stackId, final HashSet<StackStatus> endStatuses) {
-        DateTime now = DateTime.now(DateTimeZone.UTC).minusSeconds(10);
-        DateTime timeoutDateTime = now.plusMinutes(90);
-        Set<String> recordedStackEvents = Sets.newHashSet();
-        boolean isRunning = true;
-        StackStatus stackStatus = null;
+        return waitForStatuses(Collections.singleton(stackId), endStatuses).get(stackId);
+    }
 
-        while (isRunning) {
+    /**
+     * Blocking call that waits for changes to several stacks to complete, watching all of them in one polling loop.
+     * Times out if waiting more than 90 minutes.
+     *
+     * The stack events are polled, and a stack is only described again when one of its events is about the stack
+     * itself, which is when its status changes, or when its events could not be read, such as once it has been
+     * deleted. Polling starts fast, and slows down while no new events show up,
+     * such as while a slow resource is being created.
+     *
+     * @param stackIds The stacks to wait for
+     * @param endStatuses Status to end on
+     * @return The final status by stack ID, null for stacks that no longer exist
+     */
+    public Map<String, StackStatus> waitForStatuses(final Collection<String> stackIds,
+                                                    final Set<StackStatus> endStatuses) {
+        final DateTime since = DateTime.now(DateTimeZone.UTC).minusSeconds(10);
+        final DateTime timeoutDateTime = since.plusMinutes(90);
+        final List<StackWatch> watches = stackIds.stream()
+                .distinct()
+                .map(stackId -> new StackWatch(stackId, since))
+                .collect(Collectors.toCollection(LinkedList::new));
+        final Map<String, StackStatus> stackStatuses = new LinkedHashMap<>();
+        long pollIntervalMillis = MIN_POLL_INTERVAL_MILLIS;
+
+        while (! watches.isEmpty()) {
             try {
-                TimeUnit.SECONDS.sleep(5);
+                TimeUnit.MILLISECONDS.sleep(pollIntervalMillis);
             } catch (InterruptedException e) {
                 logger.warn("Thread sleep interrupted. Continuing...", e);
             }
-            stackStatus = getStackStatus(stackId);
-
-            if (endStatuses.contains(stackStatus) || stackStatus == null) {
-                isRunning = false;
-            }
 
-            if (stackStatus != null) {
-                List<StackEvent> stackEvents = getStackEvents(stackId);
-                stackEvents.sort((o1, o2) -> o1.getTimestamp().compareTo(o2.getTimestamp()));
-
-                for (StackEvent stackEvent : stackEvents) {
-                    DateTime eventTime = new DateTime(stackEvent.getTimestamp());
-                    if (!recordedStackEvents.contains(stackEvent.getEventId()) && now.isBefore(eventTime)) {
-                        logger.info(
-                                String.format("TS: %s, Status: %s, Type: %s, Reason: %s",
-                                        Chalk.on(stackEvent.getTimestamp().toString()).yellow(),
-                                        getStatusColor(stackEvent.getResourceStatus()),
-                                        Chalk.on(stackEvent.getResourceType()).yellow(),
-                                        Chalk.on(stackEvent.getResourceStatusReason()).yellow()));
-
-                        recordedStackEvents.add(stackEvent.getEventId());
+            boolean sawNewEvents = false;
+            for (Iterator<StackWatch> iterator = watches.iterator(); iterator.hasNext();) {
+                final StackWatch watch = iterator.next();
+                final List<StackEvent> newEvents = watch.pollNewEvents();
+                newEvents.forEach(this::logStackEvent);
+                sawNewEvents |= ! newEvents.isEmpty();
+
+                if (watch.status == null || watch.eventsUnavailable
+                        || newEvents.stream().anyMatch(this::isStackStatusEvent)) {
+                    invalidateStack(watch.stackId);
+                    final StackStatus stackStatus = getStackStatus(watch.stackId);
+                    stackStatuses.put(watch.stackId, stackStatus);
+                    if (stackStatus == null || endStatuses.contains(stackStatus)) {
+                        iterator.remove();
                     }
+                    watch.status = stackStatus;
                 }
             }
 
-            if (timeoutDateTime.isBeforeNow()) {
+            if (! watches.isEmpty() && timeoutDateTime.isBeforeNow()) {
                 logger.error("Timed out waiting for CloudFormation completion status.");
-                isRunning = false;
+                break;
             }
+
+            pollIntervalMillis = sawNewEvents ? MIN_POLL_INTERVAL_MILLIS :
+                    Math.min(MAX_POLL_INTERVAL_MILLIS, pollIntervalMillis * 3 / 2);
         }
 
-        return stackStatus;
+        return stackStatuses;
+    }
+
+    /**
+     * The events about the stack itself, rather than one of its resources, are the changes to its status.
+     */
+    private boolean isStackStatusEvent(final StackEvent stackEvent) {
+        return StringUtils.equals(stackEvent.getPhysicalResourceId(), stackEvent.getStackId());
+    }
+
+    private void logStackEvent(final StackEvent stackEvent) {
+        logger.info(
+                String.format("Stack: %s, TS: %s, Status: %s, Type: %s, Reason: %s",
+                        Chalk.on(stackEvent.getStackName()).cyan(),
+                        Chalk.on(stackEvent.getTimestamp().toString()).yellow(),
+                        getStatusColor(stackEvent.getResourceStatus()),
+                        Chalk.on(stackEvent.getResourceType()).yellow(),
+                        Chalk.on(stackEvent.getResourceStatusReason()).yellow()));
     }
 
     private String getStatusColor(String status) {
@@ -404,4 +654,82 @@ public class CloudFormationService {
         }
         return status;
     }
+
+    private static final class CachedStack {
+
+        private final Stack stack;
+
+        private final long describedAt;
+
+        private CachedStack(final Stack stack, final long describedAt) {
+            this.stack = stack;
+            this.describedAt = describedAt;
+        }
+    }
+
+    /**
+     * The progress of a stack being waited on.
+     */
+    private final class StackWatch {
+
+        private final String stackId;
+
+        private final DateTime since;
+
+        private String lastSeenEventId;
+
+        private StackStatus status;
+
+        /**
+         * Whether the last poll failed to read the stack's events, in which case its status has to be described.
+         */
+        private boolean eventsUnavailable;
+
+        private StackWatch(final String stackId, final DateTime since) {
+            this.stackId = stackId;
+            this.since = since;
+        }
+
+        /**
+         * Pages back through the stack's events, newest first, to the last event already seen.
+         *
+         * @return The events since the last poll, oldest first
+         */
+        private List<StackEvent> pollNewEvents() {
+            final List<StackEvent> newEvents = Lists.newArrayList();
+            String nextToken = null;
+            eventsUnavailable = false;
+
+            pages:
+            do {
+                final DescribeStackEventsResult result;
+                try {
+                    result = cloudFormationClient.describeStackEvents(
+                            new DescribeStackEventsRequest().withStackName(stackId).withNextToken(nextToken));
+                } catch (final AmazonServiceException ase) {
+                    // Stack doesn't exist, there are no events to read its status from
+                    if (ase.getStatusCode() != 400) {
+                        throw ase;
+                    }
+                    eventsUnavailable = true;
+                    break;
+                }
+
+                for (final StackEvent stackEvent : result.getStackEvents()) {
+                    if (StringUtils.equals(stackEvent.getEventId(), lastSeenEventId)
+                            || ! since.isBefore(new DateTime(stackEvent.getTimestamp()))) {
+                        break pages;
+                    }
+                    newEvents.add(stackEvent);
+                }
+                nextToken = result.getNextToken();
+            } while (nextToken != null);
+
+            if (! newEvents.isEmpty()) {
+                lastSeenEventId = newEvents.get(0).getEventId();
+            }
+            Collections.reverse(newEvents);
+            return newEvents;
+        }
+    }
 }
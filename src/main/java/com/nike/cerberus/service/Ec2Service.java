@@ -136,12 +136,12 @@ public class Ec2Service {
     }
 
     /**
-     * Reboots the EC2 instance with the given ID
-     * @param instanceId - EC2 instance ID
+     * Reboots the EC2 instances with the given IDs
+     * @param instanceIds - EC2 instance IDs
      */
-    public void rebootEc2Instance(final String instanceId) {
+    public void rebootEc2Instance(final String... instanceIds) {
 
-        final RebootInstancesRequest request = new RebootInstancesRequest().withInstanceIds(instanceId);
+        final RebootInstancesRequest request = new RebootInstancesRequest().withInstanceIds(instanceIds);
 
         ec2Client.rebootInstances(request);
     }
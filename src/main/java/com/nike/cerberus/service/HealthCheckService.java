@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.service;
+
+import com.github.tomaslanger.chalk.Chalk;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.net.Proxy;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Service for probing the health checks of EC2 instances.
+ *
+ * All probes share one HTTP client, so the connections, and their TLS sessions, to an instance are reused from one
+ * probe to the next instead of being set up again for every probe.
+ */
+@Singleton
+public class HealthCheckService {
+
+    public static final int HEALTH_CHECK_FAILED_CODE = -1;
+
+    private static final int DEFAULT_HTTP_TIMEOUT = 15;
+
+    private static final TimeUnit DEFAULT_HTTP_TIMEOUT_UNIT = TimeUnit.SECONDS;
+
+    private static final int MAX_IDLE_CONNECTIONS = 10;
+
+    private static final long KEEP_ALIVE_DURATION_MINUTES = 5;
+
+    /**
+     * How many of the most recent probe latencies the percentiles are calculated from.
+     */
+    private static final int LATENCY_WINDOW_SIZE = 1000;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final OkHttpClient httpClient;
+
+    private final long[] latencyWindow = new long[LATENCY_WINDOW_SIZE];
+
+    private long latencyCount = 0;
+
+    @Inject
+    public HealthCheckService(final Proxy proxy) {
+        httpClient = new OkHttpClient.Builder()
+                .hostnameVerifier(new NoopHostnameVerifier())
+                .proxy(proxy)
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_DURATION_MINUTES, TimeUnit.MINUTES))
+                .connectTimeout(DEFAULT_HTTP_TIMEOUT, DEFAULT_HTTP_TIMEOUT_UNIT)
+                .writeTimeout(DEFAULT_HTTP_TIMEOUT, DEFAULT_HTTP_TIMEOUT_UNIT)
+                .readTimeout(DEFAULT_HTTP_TIMEOUT, DEFAULT_HTTP_TIMEOUT_UNIT)
+                .build();
+    }
+
+    /**
+     * Probes several health checks at the same time.
+     *
+     * @param healthCheckUrls The health check URLs by key, such as the instance ID
+     * @return The response code of each health check by key, {@link #HEALTH_CHECK_FAILED_CODE} if there was none
+     */
+    public <K> Map<K, Integer> checkAll(final Map<K, String> healthCheckUrls) {
+        final Map<K, CompletableFuture<Integer>> probes = new LinkedHashMap<>();
+        healthCheckUrls.forEach((key, healthCheckUrl) -> probes.put(key, check(healthCheckUrl)));
+
+        final Map<K, Integer> responseCodes = new LinkedHashMap<>();
+        probes.forEach((key, probe) -> responseCodes.put(key, probe.join()));
+        return responseCodes;
+    }
+
+    /**
+     * Probes a health check without blocking.
+     *
+     * @param healthCheckUrl The health check URL
+     * @return The response code of the health check, {@link #HEALTH_CHECK_FAILED_CODE} if there was none
+     */
+    public CompletableFuture<Integer> check(final String healthCheckUrl) {
+        final Request request = new Request.Builder()
+                .url(healthCheckUrl)
+                .get()
+                .build();
+
+        final CompletableFuture<Integer> responseCode = new CompletableFuture<>();
+        final long start = System.nanoTime();
+
+        httpClient.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onResponse(final Call call, final Response response) {
+                recordLatency(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                try (Response body = response) {
+                    logger.debug("Health check returned status: {}, URL: {}", body.code(), healthCheckUrl);
+                    responseCode.complete(body.code());
+                }
+            }
+
+            @Override
+            public void onFailure(final Call call, final IOException ioe) {
+                final String message = Chalk.on("Health check failed, Cause: \"{}\", URL: {}").red().toString();
+                logger.debug(message, ioe.getMessage(), healthCheckUrl);
+                responseCode.complete(HEALTH_CHECK_FAILED_CODE);
+            }
+        });
+
+        return responseCode;
+    }
+
+    /**
+     * Returns a percentile of the latency of the recent health checks that got a response.
+     *
+     * @param percentile The percentile, between 0 and 100
+     * @return The latency in milliseconds, 0 if no health check got a response yet
+     */
+    public synchronized long getLatencyPercentile(final double percentile) {
+        final int size = (int) Math.min(latencyCount, LATENCY_WINDOW_SIZE);
+        if (size == 0) {
+            return 0;
+        }
+
+        final long[] latencies = Arrays.copyOf(latencyWindow, size);
+        Arrays.sort(latencies);
+
+        final int rank = (int) Math.ceil(percentile / 100 * size);
+        return latencies[Math.max(0, Math.min(size, rank) - 1)];
+    }
+
+    /**
+     * Formats the median, 90th and 99th percentile latencies for logging.
+     */
+    public String getLatencySummary() {
+        return String.format("p50: %sms, p90: %sms, p99: %sms",
+                getLatencyPercentile(50), getLatencyPercentile(90), getLatencyPercentile(99));
+    }
+
+    synchronized void recordLatency(final long latencyMillis) {
+        latencyWindow[(int) (latencyCount % LATENCY_WINDOW_SIZE)] = latencyMillis;
+        latencyCount++;
+    }
+}
@@ -20,12 +20,20 @@ import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.DeleteObjectsRequest;
 import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException;
 import com.amazonaws.services.s3.model.ObjectListing;
 import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.google.common.collect.Iterators;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.nike.cerberus.ConfigConstants;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -33,17 +41,46 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Optional;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Service wrapper for AWS S3.
  */
 public class S3StoreService implements StoreService {
 
+    /**
+     * The most keys S3 will return in one listing, or delete in one request.
+     */
+    private static final int MAX_KEYS_PER_REQUEST = 1000;
+
+    private static final int DELETE_CONCURRENCY = 8;
+
+    private static final int MAX_DELETE_ATTEMPTS = 3;
+
+    private static final long DELETE_RETRY_BACKOFF_MILLIS = 200;
+
+    private static final ExecutorService LISTING_EXECUTOR = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("s3-list-%d").setDaemon(true).build());
+
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     private final AmazonS3 s3Client;
@@ -59,12 +96,54 @@ public class S3StoreService implements StoreService {
     }
 
     public void put(String path, String value) {
-        byte[] content;
+        put(path, encode(value));
+    }
+
+    /**
+     * Stores the value only if the object has not changed since the given version was read, or, when no version is
+     * given, only if the object does not exist yet.
+     *
+     * @param path The path of the object
+     * @param value The new content of the object
+     * @param current The version of the object the new content is based on, or null if there is none
+     * @return The version that was stored
+     * @throws ConcurrentUpdateException if the object was changed or created since
+     */
+    public VersionedContent putIfUnchanged(String path, String value, VersionedContent current) {
+        byte[] content = encode(value);
+        ObjectMetadata md = new ObjectMetadata();
+        md.setContentLength(content.length);
+        PutObjectRequest request = new PutObjectRequest(s3Bucket, getFullPath(path), new ByteArrayInputStream(content), md);
+        if (current != null) {
+            request.putCustomRequestHeader(HttpHeaders.IF_MATCH, current.getETag());
+        } else {
+            request.putCustomRequestHeader(HttpHeaders.IF_NONE_MATCH, "*");
+        }
+
+        try {
+            return new VersionedContent(value, s3Client.putObject(request).getETag());
+        } catch (AmazonServiceException ase) {
+            if (ase.getStatusCode() == HttpStatus.SC_PRECONDITION_FAILED || ase.getStatusCode() == HttpStatus.SC_CONFLICT) {
+                throw new ConcurrentUpdateException(String.format(
+                        "The S3 object was changed by someone else. Bucket: %s, Key: %s", s3Bucket, request.getKey()), ase);
+            }
+            logger.error("Unexpected error communicating with AWS.", ase);
+            throw ase;
+        }
+    }
+
+    private byte[] encode(String value) {
         try {
-            content = value.getBytes(ConfigConstants.DEFAULT_ENCODING);
+            return value.getBytes(ConfigConstants.DEFAULT_ENCODING);
         } catch (UnsupportedEncodingException e) {
             throw new UnexpectedDataEncodingException("Value to be stored has unexpected encoding.", e);
         }
+    }
+
+    /**
+     * Stores already encoded content, so the same bytes can be put to several stores without re-encoding them.
+     */
+    public void put(String path, byte[] content) {
         ByteArrayInputStream contentAsStream = new ByteArrayInputStream(content);
         ObjectMetadata md = new ObjectMetadata();
         md.setContentLength(content.length);
@@ -78,9 +157,48 @@ public class S3StoreService implements StoreService {
             return Optional.empty();
         }
 
+        return Optional.of(readContent(s3ObjectOptional.get(), path));
+    }
+
+    /**
+     * Reads an object along with its ETag. When the version already read is given, the object is only downloaded
+     * if it has changed since, otherwise the version already read is returned.
+     *
+     * @param path The path of the object
+     * @param current The version of the object already read, or null
+     * @return The current version of the object, empty if the object does not exist
+     */
+    public Optional<VersionedContent> getIfChanged(String path, VersionedContent current) {
+        GetObjectRequest request = new GetObjectRequest(s3Bucket, getFullPath(path));
+        if (current != null) {
+            request.withNonmatchingETagConstraint(current.getETag());
+        }
+
+        S3Object s3Object;
         try {
-            InputStream object = s3ObjectOptional.get().getObjectContent();
-            return Optional.of(IOUtils.toString(object, ConfigConstants.DEFAULT_ENCODING));
+            s3Object = s3Client.getObject(request);
+        } catch (AmazonServiceException ase) {
+            if (StringUtils.equalsIgnoreCase(ase.getErrorCode(), "NoSuchKey")) {
+                logger.debug(String.format("The S3 object doesn't exist. Bucket: %s, Key: %s", s3Bucket, request.getKey()));
+                return Optional.empty();
+            } else {
+                logger.error("Unexpected error communicating with AWS.", ase);
+                throw ase;
+            }
+        }
+
+        // the client returns null rather than the object when the ETag constraint is not met
+        if (s3Object == null) {
+            logger.debug(String.format("The S3 object has not changed. Bucket: %s, Key: %s", s3Bucket, request.getKey()));
+            return Optional.of(current);
+        }
+
+        return Optional.of(new VersionedContent(readContent(s3Object, path), s3Object.getObjectMetadata().getETag()));
+    }
+
+    private String readContent(S3Object s3Object, String path) {
+        try (InputStream object = s3Object.getObjectContent()) {
+            return IOUtils.toString(object, ConfigConstants.DEFAULT_ENCODING);
         } catch (IOException e) {
             String errorMessage =
                     String.format("Unable to read contents of S3 object. Bucket: %s, Key: %s, Expected Encoding: %s",
@@ -90,8 +208,41 @@ public class S3StoreService implements StoreService {
         }
     }
 
+    /**
+     * Reads the raw content of an object, for content such as compressed backups that is not a string.
+     */
+    public Optional<byte[]> getBytes(String path) {
+        return getBytes(new GetObjectRequest(s3Bucket, getFullPath(path)));
+    }
+
+    /**
+     * Reads an inclusive byte range of an object, so a single record can be read out of a larger object.
+     */
+    public Optional<byte[]> getBytes(String path, long start, long end) {
+        return getBytes(new GetObjectRequest(s3Bucket, getFullPath(path)).withRange(start, end));
+    }
+
+    private Optional<byte[]> getBytes(GetObjectRequest request) {
+        Optional<S3Object> s3ObjectOptional = getS3Object(request);
+        if (! s3ObjectOptional.isPresent()) {
+            return Optional.empty();
+        }
+
+        try (InputStream object = s3ObjectOptional.get().getObjectContent()) {
+            return Optional.of(IOUtils.toByteArray(object));
+        } catch (IOException e) {
+            String errorMessage = String.format("Unable to read contents of S3 object. Bucket: %s, Key: %s",
+                    s3Bucket, request.getKey());
+            logger.error(errorMessage);
+            throw new RuntimeException(errorMessage, e);
+        }
+    }
+
     protected Optional<S3Object> getS3Object(String path) {
-        GetObjectRequest request = new GetObjectRequest(s3Bucket, getFullPath(path));
+        return getS3Object(new GetObjectRequest(s3Bucket, getFullPath(path)));
+    }
+
+    private Optional<S3Object> getS3Object(GetObjectRequest request) {
         try {
             return Optional.of(s3Client.getObject(request));
         }
@@ -106,6 +257,10 @@ public class S3StoreService implements StoreService {
         }
     }
 
+    public boolean exists(String path) {
+        return s3Client.doesObjectExist(s3Bucket, getFullPath(path));
+    }
+
     public Map<String, String> getS3ObjectUserMetaData(String path) {
         Optional<S3Object> encryptedObjectOptional = getS3Object(path);
         if (! encryptedObjectOptional.isPresent()) {
@@ -116,13 +271,23 @@ public class S3StoreService implements StoreService {
     }
 
     public Set<String> getKeysInPartialPath(String path) {
-        ObjectListing objectListing = s3Client.listObjects(s3Bucket, getFullPath(path));
+        return streamKeysInPartialPath(path).collect(Collectors.toSet());
+    }
 
-        return objectListing
-                        .getObjectSummaries()
-                        .stream()
-                        .map(objectSummary -> StringUtils.stripStart(objectSummary.getKey(), s3Prefix + "/"))
-                        .collect(Collectors.toSet());
+    /**
+     * Lazily lists the keys under a path, a page at a time. Nothing is listed until the stream is consumed, and the
+     * next page is listed in the background while the current one is being consumed.
+     */
+    public Stream<String> streamKeysInPartialPath(String path) {
+        return streamObjectSummaries(getFullPath(path))
+                .map(objectSummary -> StringUtils.removeStart(objectSummary.getKey(), getFullPath("")));
+    }
+
+    private Stream<S3ObjectSummary> streamObjectSummaries(String fullPath) {
+        return StreamSupport.stream(
+                () -> Spliterators.spliteratorUnknownSize(new ObjectSummaryIterator(fullPath), Spliterator.ORDERED),
+                Spliterator.ORDERED,
+                false);
     }
 
     /**
@@ -139,22 +304,100 @@ public class S3StoreService implements StoreService {
                 .collect(Collectors.toSet());
     }
 
+    /**
+     * Lists only the folders directly under a path, without listing the keys inside them. S3 returns up to 1,000
+     * folders per request, however many keys each folder holds.
+     */
+    public Set<String> listFoldersUnderPartialPath(String path) {
+        String fullPath = getFullPath(path);
+        String folderPrefix = StringUtils.isEmpty(fullPath) || fullPath.endsWith("/") ? fullPath : fullPath + "/";
+
+        ListObjectsRequest request = new ListObjectsRequest()
+                .withBucketName(s3Bucket)
+                .withPrefix(folderPrefix)
+                .withDelimiter("/");
+
+        Set<String> folders = new HashSet<>();
+        ObjectListing objectListing = s3Client.listObjects(request);
+        while (true) {
+            objectListing.getCommonPrefixes().forEach(commonPrefix -> folders.add(
+                    StringUtils.removeEnd(StringUtils.removeStart(commonPrefix, folderPrefix), "/")));
+
+            if (! objectListing.isTruncated()) {
+                return folders;
+            }
+            objectListing = s3Client.listNextBatchOfObjects(objectListing);
+        }
+    }
+
+    /**
+     * Deletes every key under a path. The keys are deleted in batches of up to 1,000, several batches at a time, while
+     * the rest of the path is still being listed. Keys that S3 fails to delete are retried.
+     */
     public void deleteAllKeysOnPartialPath(String path) {
-        ObjectListing objectListing = s3Client.listObjects(s3Bucket, getFullPath(path));
+        Iterator<S3ObjectSummary> objectSummaries = streamObjectSummaries(getFullPath(path)).iterator();
 
-        if (objectListing.getObjectSummaries().isEmpty()) {
-            return;
+        ExecutorService executor = Executors.newFixedThreadPool(DELETE_CONCURRENCY,
+                new ThreadFactoryBuilder().setNameFormat("s3-delete-%d").setDaemon(true).build());
+        // bounds the batches waiting to be deleted, so that listing does not get far ahead of deleting
+        Semaphore batchesInFlight = new Semaphore(DELETE_CONCURRENCY);
+        List<CompletableFuture<Void>> batches = new LinkedList<>();
+        try {
+            // keys already listed can be deleted while the next page is listed, the listing continues after the last key
+            Iterators.partition(objectSummaries, MAX_KEYS_PER_REQUEST).forEachRemaining(page -> {
+                List<DeleteObjectsRequest.KeyVersion> keys = page
+                        .stream()
+                        .map(objectSummary -> new DeleteObjectsRequest.KeyVersion(objectSummary.getKey()))
+                        .collect(Collectors.toList());
+
+                batchesInFlight.acquireUninterruptibly();
+                batches.add(CompletableFuture.runAsync(() -> deleteKeys(keys), executor)
+                        .whenComplete((result, error) -> batchesInFlight.release()));
+            });
+            CompletableFuture.allOf(batches.toArray(new CompletableFuture[batches.size()])).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(String.format("Failed to delete keys on path: %s", path), e.getCause());
+        } finally {
+            executor.shutdown();
         }
+    }
 
-        List<DeleteObjectsRequest.KeyVersion> keys = objectListing
-                .getObjectSummaries()
-                .stream()
-                .map(objectSummary -> new DeleteObjectsRequest.KeyVersion(objectSummary.getKey()))
-                .collect(Collectors.toList());
+    /**
+     * Deletes a batch of keys, retrying the keys that S3 reports it failed to delete.
+     */
+    private void deleteKeys(List<DeleteObjectsRequest.KeyVersion> keys) {
+        List<DeleteObjectsRequest.KeyVersion> remainingKeys = keys;
+        for (int attempt = 1; ; attempt++) {
+            DeleteObjectsRequest request = new DeleteObjectsRequest(s3Bucket);
+            request.setKeys(remainingKeys);
+            try {
+                s3Client.deleteObjects(request);
+                return;
+            } catch (MultiObjectDeleteException e) {
+                MultiObjectDeleteException.DeleteError firstError = e.getErrors().get(0);
+                if (attempt >= MAX_DELETE_ATTEMPTS) {
+                    throw new RuntimeException(String.format(
+                            "Failed to delete %s keys from bucket: %s after %s attempts, first error: %s %s, key: %s",
+                            e.getErrors().size(), s3Bucket, attempt, firstError.getCode(), firstError.getMessage(),
+                            firstError.getKey()), e);
+                }
 
-        DeleteObjectsRequest request = new DeleteObjectsRequest(s3Bucket);
-        request.setKeys(keys);
-        s3Client.deleteObjects(request);
+                logger.warn("Failed to delete {} keys from bucket: {}, first error: {} {}, retrying",
+                        e.getErrors().size(), s3Bucket, firstError.getCode(), firstError.getMessage());
+                remainingKeys = e.getErrors().stream()
+                        .map(error -> new DeleteObjectsRequest.KeyVersion(error.getKey(), error.getVersionId()))
+                        .collect(Collectors.toList());
+                try {
+                    TimeUnit.MILLISECONDS.sleep(DELETE_RETRY_BACKOFF_MILLIS << (attempt - 1));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while waiting to retry deleting keys", ie);
+                }
+            }
+        }
     }
 
     private String getFullPath(final String path) {
@@ -164,4 +407,52 @@ public class S3StoreService implements StoreService {
             return String.format("%s/%s", s3Prefix, path);
         }
     }
+
+    /**
+     * Iterates over the objects under a prefix, listing the next page as soon as the current page is returned.
+     */
+    private class ObjectSummaryIterator implements Iterator<S3ObjectSummary> {
+
+        private Iterator<S3ObjectSummary> currentPage = Collections.emptyIterator();
+
+        private CompletableFuture<ObjectListing> nextPage;
+
+        ObjectSummaryIterator(String fullPath) {
+            nextPage = CompletableFuture.supplyAsync(() -> s3Client.listObjects(s3Bucket, fullPath), LISTING_EXECUTOR);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (! currentPage.hasNext() && nextPage != null) {
+                ObjectListing objectListing = getNextPage();
+                nextPage = objectListing.isTruncated() ?
+                        CompletableFuture.supplyAsync(() -> s3Client.listNextBatchOfObjects(objectListing), LISTING_EXECUTOR) :
+                        null;
+                currentPage = objectListing.getObjectSummaries().iterator();
+            }
+            return currentPage.hasNext();
+        }
+
+        @Override
+        public S3ObjectSummary next() {
+            if (! hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return currentPage.next();
+        }
+
+        private ObjectListing getNextPage() {
+            try {
+                return nextPage.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof AmazonServiceException) {
+                    logger.error("Unexpected error communicating with AWS.", e.getCause());
+                }
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new RuntimeException(String.format("Failed to list S3 objects. Bucket: %s", s3Bucket), e.getCause());
+            }
+        }
+    }
 }
@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.service;
+
+/**
+ * The content of a stored object along with the ETag of the version it was read from.
+ */
+public class VersionedContent {
+
+    private final String content;
+
+    private final String eTag;
+
+    public VersionedContent(final String content, final String eTag) {
+        this.content = content;
+        this.eTag = eTag;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+}
@@ -49,9 +49,10 @@ import com.nike.cerberus.domain.environment.Secrets;
 import com.nike.cerberus.domain.environment.StackName;
 import com.nike.cerberus.domain.environment.CloudFrontLogProcessingLambdaConfig;
 import com.nike.cerberus.service.CloudFormationService;
+import com.nike.cerberus.service.ConcurrentUpdateException;
 import com.nike.cerberus.service.IdentityManagementService;
 import com.nike.cerberus.service.S3StoreService;
-import com.nike.cerberus.service.StoreService;
+import com.nike.cerberus.service.VersionedContent;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -65,6 +66,7 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
 import java.util.Set;
+import java.util.function.Consumer;
 
 import static com.nike.cerberus.ConfigConstants.ADMIN_ROLE_ARN_KEY;
 import static com.nike.cerberus.ConfigConstants.CERT_PART_CA;
@@ -91,6 +93,8 @@ public class ConfigStore {
 
     private static final String CERBERUS_METRICS_TOPIC_ARN_STACK_OUTPUT_KEY = "CerberusMetricsTopicArn";
 
+    private static final int MAX_UPDATE_ATTEMPTS = 3;
+
     private final CloudFormationService cloudFormationService;
 
     private final ObjectMapper configObjectMapper;
@@ -107,9 +111,17 @@ public class ConfigStore {
 
     private final Object secretsDataLock = new Object();
 
-    private StoreService encryptedConfigStoreService;
+    private S3StoreService encryptedConfigStoreService;
+
+    private S3StoreService configStoreService;
+
+    /**
+     * The environment and secrets documents as last read, revalidated or written, so that they are only downloaded,
+     * and the secrets decrypted, again when they have changed in S3.
+     */
+    private volatile VersionedContent environmentDocument;
 
-    private StoreService configStoreService;
+    private volatile VersionedContent secretsDocument;
 
     private AWSSecurityTokenService securityTokenService;
 
@@ -140,20 +152,28 @@ public class ConfigStore {
      * @param az3 AZ 3
      */
     public void storeAzs(final String az1, final String az2, final String az3) {
-        synchronized (envDataLock) {
-            final Environment environment = getEnvironmentData();
-
-            if (StringUtils.isNotBlank(environment.getAz1())
-                    || StringUtils.isNotBlank(environment.getAz2())
-                    || StringUtils.isNotBlank(environment.getAz3())) {
-                throw new IllegalStateException("AZs are already defined for this environment!  Aborting save...");
-            }
+        updateEnvironment(environment -> storeAzs(environment, az1, az2, az3));
+    }
 
-            environment.setAz1(az1);
-            environment.setAz2(az2);
-            environment.setAz3(az3);
-            saveEnvironmentData(environment);
+    /**
+     * Sets the AZs as part of an {@link #updateEnvironment(Consumer)}, with the same one time check as
+     * {@link #storeAzs(String, String, String)}.
+     *
+     * @param environment The environment data being updated
+     * @param az1 AZ 1
+     * @param az2 AZ 2
+     * @param az3 AZ 3
+     */
+    public static void storeAzs(final Environment environment, final String az1, final String az2, final String az3) {
+        if (StringUtils.isNotBlank(environment.getAz1())
+                || StringUtils.isNotBlank(environment.getAz2())
+                || StringUtils.isNotBlank(environment.getAz3())) {
+            throw new IllegalStateException("AZs are already defined for this environment!  Aborting save...");
         }
+
+        environment.setAz1(az1);
+        environment.setAz2(az2);
+        environment.setAz3(az3);
     }
 
     /**
@@ -163,11 +183,7 @@ public class ConfigStore {
      * @param stackId Stack ID
      */
     public void storeStackId(final StackName stackName, final String stackId) {
-        synchronized (envDataLock) {
-            final Environment environment = getEnvironmentData();
-            environment.getStackMap().put(stackName, stackId);
-            saveEnvironmentData(environment);
-        }
+        updateEnvironment(environment -> environment.getStackMap().put(stackName, stackId));
     }
 
     /**
@@ -218,16 +234,22 @@ public class ConfigStore {
      * @param configKeyId The KMS key ID
      */
     public void storeConfigKeyId(final String configKeyId) {
-        synchronized (envDataLock) {
-            final Environment environment = getEnvironmentData();
-
-            if (StringUtils.isNotBlank(environment.getConfigKeyId())) {
-                throw new IllegalStateException("Config Key ID is already defined for this environment!  Aborting save...");
-            }
+        updateEnvironment(environment -> storeConfigKeyId(environment, configKeyId));
+    }
 
-            environment.setConfigKeyId(configKeyId);
-            saveEnvironmentData(environment);
+    /**
+     * Sets the KMS key ID as part of an {@link #updateEnvironment(Consumer)}, with the same one time check as
+     * {@link #storeConfigKeyId(String)}.
+     *
+     * @param environment The environment data being updated
+     * @param configKeyId The KMS key ID
+     */
+    public static void storeConfigKeyId(final Environment environment, final String configKeyId) {
+        if (StringUtils.isNotBlank(environment.getConfigKeyId())) {
+            throw new IllegalStateException("Config Key ID is already defined for this environment!  Aborting save...");
         }
+
+        environment.setConfigKeyId(configKeyId);
     }
 
     /**
@@ -253,12 +275,10 @@ public class ConfigStore {
         saveEncryptedObject(ConfigConstants.CONSUL_SERVER_CONFIG_FILE, consulConfiguration.getServerConfiguration());
         saveEncryptedObject(ConfigConstants.CONSUL_CLIENT_CONFIG_FILE, consulConfiguration.getClientConfiguration());
 
-        synchronized (secretsDataLock) {
-            final Secrets secrets = getSecretsData();
+        updateSecrets(secrets -> {
             secrets.getConsul().setAclMasterToken(consulConfiguration.getInput().getAclMasterToken());
             secrets.getConsul().setGossipEncryptionToken(consulConfiguration.getInput().getGossipEncryptionToken());
-            saveSecretsData(secrets);
-        }
+        });
     }
 
     /**
@@ -302,11 +322,7 @@ public class ConfigStore {
     public void storeVaultAclEntry(final VaultAclEntry vaultAclEntry) {
         saveEncryptedObject(ConfigConstants.VAULT_ACL_ENTRY_FILE, vaultAclEntry.getEntry());
 
-        synchronized (secretsDataLock) {
-            final Secrets secrets = getSecretsData();
-            secrets.getConsul().setVaultAclToken(vaultAclEntry.getAclToken());
-            saveSecretsData(secrets);
-        }
+        updateSecrets(secrets -> secrets.getConsul().setVaultAclToken(vaultAclEntry.getAclToken()));
     }
 
     /**
@@ -379,11 +395,7 @@ public class ConfigStore {
      * @param adminGroup Admin Group
      */
     public void storeCmsAdminGroup(final String adminGroup) {
-        synchronized (secretsDataLock) {
-            final Secrets secrets = getSecretsData();
-            secrets.getCms().setAdminGroup(adminGroup);
-            saveSecretsData(secrets);
-        }
+        updateSecrets(secrets -> secrets.getCms().setAdminGroup(adminGroup));
     }
 
     /**
@@ -404,11 +416,7 @@ public class ConfigStore {
      * @param databasePassword Database password
      */
     public void storeCmsDatabasePassword(final String databasePassword) {
-        synchronized (secretsDataLock) {
-            final Secrets secrets = getSecretsData();
-            secrets.getCms().setDatabasePassword(databasePassword);
-            saveSecretsData(secrets);
-        }
+        updateSecrets(secrets -> secrets.getCms().setDatabasePassword(databasePassword));
     }
 
     /**
@@ -429,11 +437,7 @@ public class ConfigStore {
      * @param cmsVaultToken CMS Vault token
      */
     public void storeCmsVaultToken(final String cmsVaultToken) {
-        synchronized (secretsDataLock) {
-            final Secrets secrets = getSecretsData();
-            secrets.getCms().setVaultToken(cmsVaultToken);
-            saveSecretsData(secrets);
-        }
+        updateSecrets(secrets -> secrets.getCms().setVaultToken(cmsVaultToken));
     }
 
     /**
@@ -442,11 +446,7 @@ public class ConfigStore {
      * @param vaultKeys Vault unseal keys
      */
     public void storeVaultKeys(final List<String> vaultKeys) {
-        synchronized (secretsDataLock) {
-            final Secrets secrets = getSecretsData();
-            secrets.getVault().setKeys(vaultKeys);
-            saveSecretsData(secrets);
-        }
+        updateSecrets(secrets -> secrets.getVault().setKeys(vaultKeys));
     }
 
     /**
@@ -467,11 +467,7 @@ public class ConfigStore {
      * @param vaultRootToken Vault root token
      */
     public void storeVaultRootToken(final String vaultRootToken) {
-        synchronized (secretsDataLock) {
-            final Secrets secrets = getSecretsData();
-            secrets.getVault().setRootToken(vaultRootToken);
-            saveSecretsData(secrets);
-        }
+        updateSecrets(secrets -> secrets.getVault().setRootToken(vaultRootToken));
     }
 
     /**
@@ -519,11 +515,7 @@ public class ConfigStore {
         saveEncryptedObject(buildCertFilePath(stackName, CERT_PART_KEY), keyContents);
         saveEncryptedObject(buildCertFilePath(stackName, CERT_PART_PUBKEY), pubKeyContents);
 
-        synchronized (envDataLock) {
-            final Environment environment = getEnvironmentData();
-            environment.getServerCertificateIdMap().put(stackName, certificateName);
-            saveEnvironmentData(environment);
-        }
+        updateEnvironment(environment -> environment.getServerCertificateIdMap().put(stackName, certificateName));
     }
 
     public void storeCmsEnvConfig(final Properties cmsConfigMap) {
@@ -787,7 +779,7 @@ public class ConfigStore {
                 throw new RuntimeException(errorMessage);
             } catch (IllegalStateException ise) {
                 final Environment environment = new Environment();
-                saveEnvironmentData(environment);
+                saveEnvironmentData(environment, null);
             }
         }
     }
@@ -804,56 +796,137 @@ public class ConfigStore {
                 throw new RuntimeException(errorMessage);
             } catch (IllegalStateException ise) {
                 final Secrets secrets = new Secrets();
-                saveSecretsData(secrets);
+                saveSecretsData(secrets, null);
+            }
+        }
+    }
+
+    /**
+     * Applies any number of changes to the environment data with a single read and write of the environment data.
+     * The write only succeeds if no one else has changed the environment data since it was read, otherwise the
+     * changes are applied again to the latest environment data.
+     *
+     * @param update Changes the environment data
+     */
+    public void updateEnvironment(final Consumer<Environment> update) {
+        synchronized (envDataLock) {
+            for (int attempt = 1; ; attempt++) {
+                final VersionedContent current = getEnvironmentDocument();
+                final Environment environment = readEnvironmentData(current);
+                update.accept(environment);
+                try {
+                    saveEnvironmentData(environment, current);
+                    return;
+                } catch (ConcurrentUpdateException cue) {
+                    if (attempt >= MAX_UPDATE_ATTEMPTS) {
+                        throw cue;
+                    }
+                    logger.warn("The environment data was changed by someone else, applying the changes again...");
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies any number of changes to the secrets data with a single read, decrypt, encrypt and write of the secrets
+     * data. The write only succeeds if no one else has changed the secrets data since it was read, otherwise the
+     * changes are applied again to the latest secrets data.
+     *
+     * @param update Changes the secrets data
+     */
+    public void updateSecrets(final Consumer<Secrets> update) {
+        synchronized (secretsDataLock) {
+            for (int attempt = 1; ; attempt++) {
+                final VersionedContent current = getSecretsDocument();
+                final Secrets secrets = readSecretsData(current);
+                update.accept(secrets);
+                try {
+                    saveSecretsData(secrets, current);
+                    return;
+                } catch (ConcurrentUpdateException cue) {
+                    if (attempt >= MAX_UPDATE_ATTEMPTS) {
+                        throw cue;
+                    }
+                    logger.warn("The secrets data was changed by someone else, applying the changes again...");
+                }
             }
         }
     }
 
     private Secrets getSecretsData() {
+        return readSecretsData(getSecretsDocument());
+    }
+
+    private VersionedContent getSecretsDocument() {
         initEncryptedConfigStoreService();
 
-        final Optional<String> secretsData = encryptedConfigStoreService.get(ConfigConstants.SECRETS_DATA_FILE);
+        final Optional<VersionedContent> secretsData =
+                encryptedConfigStoreService.getIfChanged(ConfigConstants.SECRETS_DATA_FILE, secretsDocument);
+        secretsDocument = secretsData.orElse(null);
 
-        if (secretsData.isPresent()) {
-            try {
-                return configObjectMapper.readValue(secretsData.get(), Secrets.class);
-            } catch (IOException e) {
-                throw new IllegalStateException("Unable to read the secrets data!", e);
-            }
-        } else {
-            throw new IllegalStateException("No secrets data available!");
+        return secretsData.orElseThrow(() -> new IllegalStateException("No secrets data available!"));
+    }
+
+    private Secrets readSecretsData(final VersionedContent secretsData) {
+        try {
+            return configObjectMapper.readValue(secretsData.getContent(), Secrets.class);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read the secrets data!", e);
         }
     }
 
-    private void saveSecretsData(final Secrets secrets) {
+    /**
+     * Writes the secrets data, unless it has been changed since the given version was read.
+     *
+     * @param secrets The secrets data to write
+     * @param current The version of the secrets data the changes were made to, or null if there is none yet
+     */
+    private void saveSecretsData(final Secrets secrets, final VersionedContent current) {
+        initEncryptedConfigStoreService();
+
         try {
             final String secretsData = configObjectMapper.writeValueAsString(secrets);
-            saveEncryptedObject(ConfigConstants.SECRETS_DATA_FILE, secretsData);
+            secretsDocument = encryptedConfigStoreService.putIfUnchanged(ConfigConstants.SECRETS_DATA_FILE,
+                    secretsData, current);
         } catch (JsonProcessingException e) {
             throw new RuntimeException("Unable to convert the environment data to JSON.  Aborting save...", e);
         }
     }
 
     private Environment getEnvironmentData() {
+        return readEnvironmentData(getEnvironmentDocument());
+    }
+
+    private VersionedContent getEnvironmentDocument() {
         initConfigStoreService();
 
-        final Optional<String> envData = configStoreService.get(ConfigConstants.ENV_DATA_FILE);
+        final Optional<VersionedContent> envData =
+                configStoreService.getIfChanged(ConfigConstants.ENV_DATA_FILE, environmentDocument);
+        environmentDocument = envData.orElse(null);
 
-        if (envData.isPresent()) {
-            try {
-                return configObjectMapper.readValue(envData.get(), Environment.class);
-            } catch (IOException e) {
-                throw new IllegalStateException("Unable to read the environment data!", e);
-            }
-        } else {
-            throw new IllegalStateException("No environment data available!");
+        return envData.orElseThrow(() -> new IllegalStateException("No environment data available!"));
+    }
+
+    private Environment readEnvironmentData(final VersionedContent envData) {
+        try {
+            return configObjectMapper.readValue(envData.getContent(), Environment.class);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read the environment data!", e);
         }
     }
 
-    private void saveEnvironmentData(final Environment environment) {
+    /**
+     * Writes the environment data, unless it has been changed since the given version was read.
+     *
+     * @param environment The environment data to write
+     * @param current The version of the environment data the changes were made to, or null if there is none yet
+     */
+    private void saveEnvironmentData(final Environment environment, final VersionedContent current) {
+        initConfigStoreService();
+
         try {
             final String envData = configObjectMapper.writeValueAsString(environment);
-            saveObject(ConfigConstants.ENV_DATA_FILE, envData);
+            environmentDocument = configStoreService.putIfUnchanged(ConfigConstants.ENV_DATA_FILE, envData, current);
         } catch (JsonProcessingException e) {
             throw new RuntimeException("Unable to convert the environment data to JSON.  Aborting save...", e);
         }
@@ -903,29 +976,35 @@ public class ConfigStore {
 
     private void initEncryptedConfigStoreService() {
         if (encryptedConfigStoreService == null) {
-            final Environment environment = getEnvironmentData();
+            encryptedConfigStoreService = createEncryptedConfigStoreService(getEnvironmentData().getConfigKeyId());
+        }
+    }
 
-            KMSEncryptionMaterialsProvider materialProvider =
-                    new KMSEncryptionMaterialsProvider(environment.getConfigKeyId());
+    protected S3StoreService createEncryptedConfigStoreService(final String configKeyId) {
+        KMSEncryptionMaterialsProvider materialProvider =
+                new KMSEncryptionMaterialsProvider(configKeyId);
 
-            AmazonS3EncryptionClient encryptionClient =
-                    new AmazonS3EncryptionClient(
-                            new DefaultAWSCredentialsProviderChain(),
-                            materialProvider,
-                            new CryptoConfiguration()
-                                    .withAwsKmsRegion(Region.getRegion(environmentMetadata.getRegions())))
-                            .withRegion(Region.getRegion(environmentMetadata.getRegions()));
+        AmazonS3EncryptionClient encryptionClient =
+                new AmazonS3EncryptionClient(
+                        new DefaultAWSCredentialsProviderChain(),
+                        materialProvider,
+                        new CryptoConfiguration()
+                                .withAwsKmsRegion(Region.getRegion(environmentMetadata.getRegions())))
+                        .withRegion(Region.getRegion(environmentMetadata.getRegions()));
 
-            encryptedConfigStoreService = new S3StoreService(encryptionClient, environmentMetadata.getBucketName(), "");
-        }
+        return new S3StoreService(encryptionClient, environmentMetadata.getBucketName(), "");
     }
 
     private void initConfigStoreService() {
         if (configStoreService == null) {
-            configStoreService = new S3StoreService(s3Client, environmentMetadata.getBucketName(), "");
+            configStoreService = createConfigStoreService();
         }
     }
 
+    protected S3StoreService createConfigStoreService() {
+        return new S3StoreService(s3Client, environmentMetadata.getBucketName(), "");
+    }
+
     private String buildCertFilePath(final StackName stackName, final String suffix) {
         return "data/" + stackName.getName() + "/" + stackName.getName() + "-" + suffix;
     }
@@ -955,11 +1034,9 @@ public class ConfigStore {
     }
 
     public void storeBackupInfoForRegion(String region, String bucket, String kmsCmkId) {
-        synchronized (envDataLock) {
-            final Environment environment = getEnvironmentData();
+        updateEnvironment(environment -> {
             environment.getRegionBackupBucketMap().put(region, new BackupRegionInfo(bucket, kmsCmkId));
-            saveEnvironmentData(environment);
-        }
+        });
     }
 
     public Set<String> getBackupAdminIamPrincipals() {
@@ -970,11 +1047,7 @@ public class ConfigStore {
     }
 
     public void storeBackupAdminIamPrincipals(Set<String> principals) {
-        synchronized (envDataLock) {
-            final Environment environment = getEnvironmentData();
-            environment.setBackupAdminIamPrincipals(principals);
-            saveEnvironmentData(environment);
-        }
+        updateEnvironment(environment -> environment.setBackupAdminIamPrincipals(principals));
     }
 
     public Optional<String> getMetricsTopicArn() {
@@ -992,11 +1065,7 @@ public class ConfigStore {
     }
 
     private void storeMetricsTopicArn(String arn) {
-        synchronized (envDataLock) {
-            final Environment environment = getEnvironmentData();
-            environment.setMetricsTopicArn(arn);
-            saveEnvironmentData(environment);
-        }
+        updateEnvironment(environment -> environment.setMetricsTopicArn(arn));
     }
 
 }
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.util;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * A stage in a producer / consumer pipeline.
+ *
+ * Items are taken from a bounded input queue by a fixed number of worker threads, processed and submitted to the
+ * next stage. When the next stage's queue is full the workers block, which applies backpressure all the way back to
+ * whatever is submitting to the first stage. If any stage fails, every stage in the pipeline stops. A null output is
+ * not passed on, so a stage can also act as a filter.
+ *
+ * @param <I> The type of item this stage consumes
+ * @param <O> The type of item this stage produces
+ */
+public class PipelineStage<I, O> {
+
+    private static final long POLL_TIMEOUT_MILLIS = 100;
+
+    private final String name;
+
+    private final int threads;
+
+    private final BlockingQueue<I> queue;
+
+    private final Function<I, O> processor;
+
+    private final AtomicLong processedCount = new AtomicLong();
+
+    private final AtomicInteger activeWorkers = new AtomicInteger();
+
+    private AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    private PipelineStage<O, ?> next;
+
+    private ExecutorService executor;
+
+    private volatile boolean inputComplete = false;
+
+    /**
+     * @param name The name of the stage, used for thread names and reporting
+     * @param threads The number of worker threads
+     * @param queueSize The number of items that can be waiting to be processed before submitters block
+     * @param processor The work done on each item
+     */
+    public PipelineStage(String name, int threads, int queueSize, Function<I, O> processor) {
+        if (threads < 1 || queueSize < 1) {
+            throw new IllegalArgumentException(String.format("Stage %s needs at least 1 thread and a queue size of " +
+                    "at least 1, but was given %s and %s", name, threads, queueSize));
+        }
+
+        this.name = name;
+        this.threads = threads;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.processor = processor;
+    }
+
+    /**
+     * Sends the output of this stage to the given stage, must be called before either stage is started.
+     *
+     * @return The next stage, for chaining
+     */
+    public <N> PipelineStage<O, N> pipeTo(PipelineStage<O, N> next) {
+        this.next = next;
+        next.failure = failure;
+        return next;
+    }
+
+    public void start() {
+        executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat(name + "-%d").setDaemon(true).build());
+        activeWorkers.set(threads);
+        for (int i = 0; i < threads; i++) {
+            executor.submit(this::work);
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Adds an item to this stage, blocking while the queue is full.
+     */
+    public void submit(I item) {
+        try {
+            while (! queue.offer(item, POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                throwIfFailed();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(String.format("Interrupted while submitting to pipeline stage %s", name), e);
+        }
+        throwIfFailed();
+    }
+
+    /**
+     * Signals that no more items will be submitted, the stage completes once its queue has been drained.
+     */
+    public void complete() {
+        inputComplete = true;
+    }
+
+    /**
+     * Blocks until this stage has processed all of its items, or the pipeline has failed.
+     */
+    public void awaitCompletion() {
+        try {
+            while (! executor.awaitTermination(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (failure.get() != null) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(String.format("Interrupted while waiting for pipeline stage %s", name), e);
+        }
+        throwIfFailed();
+    }
+
+    /**
+     * Stops the worker threads, interrupting any in progress work.
+     */
+    public void shutdownNow() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getProcessedCount() {
+        return processedCount.get();
+    }
+
+    private void work() {
+        try {
+            while (failure.get() == null) {
+                I item = queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                if (item == null) {
+                    if (inputComplete && queue.isEmpty()) {
+                        break;
+                    }
+                    continue;
+                }
+
+                O output = processor.apply(item);
+                processedCount.incrementAndGet();
+                if (next != null && output != null) {
+                    next.submit(output);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, e);
+        } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+        } finally {
+            if (activeWorkers.decrementAndGet() == 0 && next != null) {
+                next.complete();
+            }
+        }
+    }
+
+    private void throwIfFailed() {
+        Throwable t = failure.get();
+        if (t != null) {
+            throw new RuntimeException(String.format("Pipeline failed, stopped stage %s", name), t);
+        }
+    }
+}
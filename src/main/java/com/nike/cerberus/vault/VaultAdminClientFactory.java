@@ -17,6 +17,7 @@
 package com.nike.cerberus.vault;
 
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.nike.cerberus.domain.cloudformation.VaultOutputs;
 import com.nike.cerberus.service.AutoScalingService;
 import com.nike.cerberus.store.ConfigStore;
@@ -27,71 +28,152 @@ import com.nike.vault.client.auth.VaultCredentials;
 import com.nike.vault.client.auth.VaultCredentialsProvider;
 import com.nike.vault.client.model.VaultHealthResponse;
 import okhttp3.CipherSuite;
+import okhttp3.ConnectionPool;
 import okhttp3.ConnectionSpec;
 import okhttp3.OkHttpClient;
 import okhttp3.TlsVersion;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
+import javax.inject.Singleton;
 import java.net.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Handles constructing a Vault admin client that can communicate with each Vault instance directly.
+ *
+ * The instances of the Vault AutoScaling group are looked up once per run, unless they are refreshed, and there is
+ * one client per instance that all share one HTTP client, so the connections, and their TLS sessions, to an instance
+ * are reused by every command that talks to it.
  */
+@Singleton
 public class VaultAdminClientFactory {
 
     private static final int DEFAULT_TIMEOUT = 15;
 
     private static final TimeUnit DEFAULT_TIMEOUT_UNIT = TimeUnit.SECONDS;
 
-    private final Proxy proxy;
+    private static final int MAX_IDLE_CONNECTIONS = 10;
+
+    private static final long KEEP_ALIVE_DURATION_MINUTES = 5;
+
+    private static final ExecutorService LEADER_DISCOVERY_EXECUTOR = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("vault-leader-%d").setDaemon(true).build());
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
 
     private final AutoScalingService autoScalingService;
 
     private final ConfigStore configStore;
 
+    private final OkHttpClient httpClient;
+
+    /**
+     * Clients by root token and hostname, init is run with a client from before there is a root token.
+     */
+    private final Map<List<String>, VaultAdminClient> clients = new ConcurrentHashMap<>();
+
+    private final Object instanceLock = new Object();
+
+    private volatile List<String> instanceDnsNames;
+
+    private final Object leaderLock = new Object();
+
+    private volatile VaultAdminClient leaderClient;
+
     @Inject
     public VaultAdminClientFactory(final Proxy proxy,
                                    final AutoScalingService autoScalingService,
                                    final ConfigStore configStore) {
-        this.proxy = proxy;
         this.autoScalingService = autoScalingService;
         this.configStore = configStore;
+
+        final ConnectionSpec spec = new ConnectionSpec.Builder(ConnectionSpec.MODERN_TLS)
+                .tlsVersions(TlsVersion.TLS_1_2)
+                .cipherSuites(
+                        CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256,
+                        CipherSuite.TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256,
+                        CipherSuite.TLS_DHE_RSA_WITH_AES_128_GCM_SHA256)
+                .build();
+
+        httpClient = new OkHttpClient.Builder()
+                .hostnameVerifier(new NoopHostnameVerifier())
+                .connectionSpecs(Lists.newArrayList(spec))
+                .proxy(proxy)
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_DURATION_MINUTES, TimeUnit.MINUTES))
+                .connectTimeout(DEFAULT_TIMEOUT, DEFAULT_TIMEOUT_UNIT)
+                .writeTimeout(DEFAULT_TIMEOUT, DEFAULT_TIMEOUT_UNIT)
+                .readTimeout(DEFAULT_TIMEOUT, DEFAULT_TIMEOUT_UNIT)
+                .build();
     }
 
     /**
      * Looks up the running instances from the Vault AutoScaling group and attempts to determine who the leader is
      * by using the health endpoint.
      *
+     * The instances are asked at the same time, and the first one that reports being active is the leader, so an
+     * unreachable instance does not hold up finding it. The leader is remembered for the rest of the run.
+     *
      * @return Client for leader
      */
     public Optional<VaultAdminClient> getClientForLeader() {
-        VaultAdminClient leaderClient = null;
-        final String vaultRootToken = configStore.getVaultRootToken();
-        final VaultOutputs vaultOutputs = configStore.getVaultStackOutputs();
-        final List<String> instanceDnsNames = autoScalingService.getPublicDnsForAutoScalingGroup(
-                vaultOutputs.getAutoscalingGroupLogicalId());
+        if (leaderClient != null) {
+            return Optional.of(leaderClient);
+        }
 
-        for (final String instanceDnsName : instanceDnsNames) {
-            final VaultAdminClient vaultAdminClient = getClient(vaultRootToken, instanceDnsName);
+        synchronized (leaderLock) {
+            if (leaderClient == null) {
+                leaderClient = findLeader(configStore.getVaultRootToken(), getInstanceDnsNames()).orElse(null);
+            }
 
-            final VaultHealthResponse healthResponse = vaultAdminClient.health();
+            return Optional.ofNullable(leaderClient);
+        }
+    }
 
-            if (healthResponse.isInitialized() && !healthResponse.isSealed() && !healthResponse.isStandby()) {
-                leaderClient = vaultAdminClient;
-                break;
-            }
+    private Optional<VaultAdminClient> findLeader(final String vaultRootToken, final List<String> instanceDnsNames) {
+        if (instanceDnsNames.isEmpty()) {
+            return Optional.empty();
         }
 
-        return Optional.ofNullable(leaderClient);
+        final CompletableFuture<Optional<VaultAdminClient>> leader = new CompletableFuture<>();
+        final AtomicInteger remainingInstances = new AtomicInteger(instanceDnsNames.size());
+
+        instanceDnsNames.forEach(instanceDnsName -> CompletableFuture.runAsync(() -> {
+            try {
+                final VaultAdminClient vaultAdminClient = getClient(vaultRootToken, instanceDnsName);
+                final VaultHealthResponse healthResponse = vaultAdminClient.health();
+
+                if (healthResponse.isInitialized() && !healthResponse.isSealed() && !healthResponse.isStandby()) {
+                    logger.debug("Found the Vault leader: {}", instanceDnsName);
+                    leader.complete(Optional.of(vaultAdminClient));
+                }
+            } catch (RuntimeException e) {
+                logger.debug("Failed to check the health of Vault instance: {}", instanceDnsName, e);
+            } finally {
+                if (remainingInstances.decrementAndGet() == 0) {
+                    leader.complete(Optional.empty());
+                }
+            }
+        }, LEADER_DISCOVERY_EXECUTOR));
+
+        return leader.join();
     }
 
     /**
-     * Creates clients for each Vault instance in the AutoScaling group.
+     * Returns the clients for each Vault instance in the AutoScaling group.
      *
      * @return List of Vault clients
      */
@@ -99,10 +181,7 @@ public class VaultAdminClientFactory {
         final List<VaultAdminClient> clients = Lists.newLinkedList();
         String vaultRootToken = configStore.getVaultRootToken();
 
-        final VaultOutputs vaultOutputs = configStore.getVaultStackOutputs();
-        final List<String> instanceDnsNames = autoScalingService.getPublicDnsForAutoScalingGroup(
-                vaultOutputs.getAutoscalingGroupLogicalId());
-        instanceDnsNames.forEach(instanceDnsName -> {
+        getInstanceDnsNames().forEach(instanceDnsName -> {
             if (StringUtils.isNotBlank(instanceDnsName)) {
                 clients.add(getClient(vaultRootToken, instanceDnsName));
             }
@@ -116,34 +195,57 @@ public class VaultAdminClientFactory {
      * @return If instances running
      */
     public boolean hasVaultInstances() {
-        final VaultOutputs vaultOutputs = configStore.getVaultStackOutputs();
-        final List<String> instanceDnsNames = autoScalingService.getPublicDnsForAutoScalingGroup(
-                vaultOutputs.getAutoscalingGroupLogicalId());
-        return !instanceDnsNames.isEmpty();
+        return !getInstanceDnsNames().isEmpty();
     }
 
+    /**
+     * Returns the client for a Vault instance, creating it the first time the instance is asked for.
+     */
     public VaultAdminClient getClient(final String vaultRootToken, final String hostname) {
-        final ConnectionSpec spec = new ConnectionSpec.Builder(ConnectionSpec.MODERN_TLS)
-                .tlsVersions(TlsVersion.TLS_1_2)
-                .cipherSuites(
-                        CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256,
-                        CipherSuite.TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256,
-                        CipherSuite.TLS_DHE_RSA_WITH_AES_128_GCM_SHA256)
-                .build();
+        return clients.computeIfAbsent(Arrays.asList(vaultRootToken, hostname), key ->
+                new VaultAdminClient(
+                        new StaticVaultUrlResolver(toVaultUrl(hostname)),
+                        new RootCredentialsProvider(vaultRootToken),
+                        httpClient));
+    }
 
-        final OkHttpClient httpClient = new OkHttpClient.Builder()
-                .hostnameVerifier(new NoopHostnameVerifier())
-                .connectionSpecs(Lists.newArrayList(spec))
-                .proxy(proxy)
-                .connectTimeout(DEFAULT_TIMEOUT, DEFAULT_TIMEOUT_UNIT)
-                .writeTimeout(DEFAULT_TIMEOUT, DEFAULT_TIMEOUT_UNIT)
-                .readTimeout(DEFAULT_TIMEOUT, DEFAULT_TIMEOUT_UNIT)
-                .build();
+    /**
+     * Looks up the instances in the Vault AutoScaling group again, for callers that watch the cluster change, such as
+     * a polling health check. The clients of the instances that are still there are kept, along with their
+     * connections, and the leader is found again the next time it is asked for.
+     */
+    public void refreshInstances() {
+        synchronized (instanceLock) {
+            instanceDnsNames = lookUpInstanceDnsNames();
+            clients.keySet().removeIf(key -> ! instanceDnsNames.contains(key.get(1)));
+        }
+
+        synchronized (leaderLock) {
+            leaderClient = null;
+        }
+    }
+
+    /**
+     * Looks up the public DNS names of the instances in the Vault AutoScaling group the first time they are needed.
+     */
+    private List<String> getInstanceDnsNames() {
+        if (instanceDnsNames != null) {
+            return instanceDnsNames;
+        }
+
+        synchronized (instanceLock) {
+            if (instanceDnsNames == null) {
+                instanceDnsNames = lookUpInstanceDnsNames();
+            }
 
-        return new VaultAdminClient(
-                new StaticVaultUrlResolver(toVaultUrl(hostname)),
-                new RootCredentialsProvider(vaultRootToken),
-                httpClient);
+            return instanceDnsNames;
+        }
+    }
+
+    private List<String> lookUpInstanceDnsNames() {
+        final VaultOutputs vaultOutputs = configStore.getVaultStackOutputs();
+        return Collections.unmodifiableList(autoScalingService.getPublicDnsForAutoScalingGroup(
+                vaultOutputs.getAutoscalingGroupLogicalId()));
     }
 
     private String toVaultUrl(final String hostname) {
@@ -24,6 +24,7 @@ import com.nike.cerberus.command.cms.CreateCmsClusterCommand;
 import com.nike.cerberus.command.cms.CreateCmsConfigCommand;
 import com.nike.cerberus.command.consul.CreateConsulClusterCommand;
 import com.nike.cerberus.command.core.CreateBaseCommand;
+import com.nike.cerberus.command.core.DeployStacksCommand;
 import com.nike.cerberus.command.core.UpdateStackCommand;
 import com.nike.cerberus.command.core.UploadCertFilesCommand;
 import com.nike.cerberus.command.core.WhitelistCidrForVpcAccessCommand;
@@ -354,6 +355,38 @@ public class EnvironmentConfigToArgsMapperTest {
         assertArgsAreEqual(expected, actual, commandName);
     }
 
+    @Test
+    public void test_update_stack_for_base_sources_the_tags() {
+        String commandName = UpdateStackCommand.COMMAND_NAME;
+
+        String[] userInput = {"-f", "/path/to/environment.yaml", commandName, EnvironmentConfigToArgsMapper.STACK_NAME_KEY, "base"};
+
+        String[] expected = {
+                "-f", "/path/to/environment.yaml",
+                commandName,
+                EnvironmentConfigToArgsMapper.STACK_NAME_KEY, "base",
+                StackDelegate.COST_CENTER_LONG_ARG, "11111",
+                StackDelegate.OWNER_EMAIL_LONG_ARG, "obvisouly.fake@nike.com",
+                StackDelegate.OWNER_GROUP_LONG_ARG, "cloud platform engineering",
+        };
+
+        String[] actual = EnvironmentConfigToArgsMapper.getArgs(environmentConfig, userInput);
+
+        assertArgsAreEqual(expected, actual, commandName);
+    }
+
+    @Test
+    public void test_deploy_stacks_keeps_its_own_args() {
+        String commandName = DeployStacksCommand.COMMAND_NAME;
+
+        String[] userInput = {"-f", "/path/to/environment.yaml", commandName,
+                DeployStacksCommand.STACK_NAME_LONG_ARG, "cms", DeployStacksCommand.STACK_NAME_LONG_ARG, "gateway"};
+
+        String[] actual = EnvironmentConfigToArgsMapper.getArgs(environmentConfig, userInput);
+
+        assertArgsAreEqual(userInput, actual, commandName);
+    }
+
     @Test
     public void test_publish_lambda_cf_sg_ip() {
         String commandName = PublishLambdaCommand.COMMAND_NAME;
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.domain.backup;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BackupCompressionTest {
+
+    private final byte[] json = ("{\"name\":\"sdb\",\"data\":{" +
+            StringUtils.repeat("\"app/sdb/secret\":{\"key\":\"value\"},", 100) + "}}").getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void test_that_none_does_not_change_the_content() {
+        assertSame(json, BackupCompression.NONE.compress(json));
+        assertSame(json, BackupCompression.NONE.decompress(json));
+    }
+
+    @Test
+    public void test_that_compressed_content_round_trips() {
+        for (BackupCompression compression : BackupCompression.values()) {
+            byte[] compressed = compression.compress(json);
+            if (compression != BackupCompression.NONE) {
+                assertTrue(compression + " did not compress", compressed.length < json.length);
+            }
+            assertArrayEquals(json, compression.decompress(compressed));
+        }
+    }
+
+    @Test
+    public void test_that_from_name_defaults_to_none() {
+        assertEquals(BackupCompression.NONE, BackupCompression.fromName(null));
+        assertEquals(BackupCompression.GZIP, BackupCompression.fromName("gzip"));
+        assertEquals(BackupCompression.LZ4, BackupCompression.fromName("LZ4"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_that_from_name_rejects_unknown_codecs() {
+        BackupCompression.fromName("snappy");
+    }
+}
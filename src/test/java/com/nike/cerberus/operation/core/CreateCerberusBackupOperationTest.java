@@ -0,0 +1,335 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.operation.core;
+
+import com.beust.jcommander.JCommander;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.nike.cerberus.client.CerberusAdminClient;
+import com.nike.cerberus.client.CerberusAdminClientFactory;
+import com.nike.cerberus.command.core.CreateCerberusBackupCommand;
+import com.nike.cerberus.domain.EnvironmentMetadata;
+import com.nike.cerberus.domain.backup.BackupCompression;
+import com.nike.cerberus.domain.cms.SafeDepositBox;
+import com.nike.cerberus.domain.environment.BackupRegionInfo;
+import com.nike.cerberus.service.MetricsService;
+import com.nike.cerberus.service.S3StoreService;
+import com.nike.cerberus.store.ConfigStore;
+import com.nike.vault.client.model.VaultListResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.endsWith;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CreateCerberusBackupOperationTest {
+
+    private static final String REGION = "us-west-2";
+    private static final String OTHER_REGION = "us-east-1";
+    private static final String METADATA_KEY = "cerberus-backup-metadata.json";
+    private static final String JOURNAL_KEY = "cerberus-backup-journal.json";
+    private static final int NUMBER_OF_SDBS = 20;
+
+    private CerberusAdminClient cerberusAdminClient;
+
+    private ConfigStore configStore;
+
+    private S3StoreService storeService;
+
+    private S3StoreService otherStoreService;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Before
+    public void before() {
+        cerberusAdminClient = mock(CerberusAdminClient.class);
+        configStore = mock(ConfigStore.class);
+
+        when(configStore.getCerberusBaseUrl()).thenReturn("https://cerberus.example.com");
+        when(configStore.getBackupInfoForRegion(anyString()))
+                .thenReturn(Optional.of(new BackupRegionInfo("backup-bucket", "kms-cmk-id")));
+
+        List<SafeDepositBox> sdbs = new LinkedList<>();
+        for (int i = 0; i < NUMBER_OF_SDBS; i++) {
+            SafeDepositBox sdb = new SafeDepositBox();
+            sdb.setName("SDB " + i);
+            sdb.setPath("app/sdb-" + i + "/");
+            sdb.setOwner("owner-group-" + i % 3);
+            sdb.setUserGroupPermissions(ImmutableMap.of("user-group-" + i % 4, "read"));
+            sdb.setIamRolePermissions(ImmutableMap.of("arn:aws:iam::111111111111:role/role-" + i % 5, "read"));
+            sdbs.add(sdb);
+
+            mockVaultList(sdb.getPath(), "secret-a", "nested/");
+            mockVaultList(sdb.getPath() + "nested/", "secret-b");
+            mockVaultRead(sdb.getPath() + "secret-a", ImmutableMap.of("k1", "v1", "k2", "v2"));
+            mockVaultRead(sdb.getPath() + "nested/secret-b", ImmutableMap.of("k3", "v3"));
+        }
+        when(cerberusAdminClient.getAllSdbMetadata()).thenReturn(sdbs);
+    }
+
+    @Test
+    public void test_that_parallel_backup_produces_the_same_metadata_as_serial_backup() throws IOException {
+        JsonNode serialMetadata = runBackup(newOperation(),
+                CreateCerberusBackupCommand.PARALLELISM_LONG_ARG, "1",
+                CreateCerberusBackupCommand.VAULT_CONCURRENCY_LONG_ARG, "1");
+        JsonNode parallelMetadata = runBackup(newOperation(),
+                CreateCerberusBackupCommand.PARALLELISM_LONG_ARG, "8",
+                CreateCerberusBackupCommand.VAULT_CONCURRENCY_LONG_ARG, "4");
+
+        assertEquals(NUMBER_OF_SDBS, serialMetadata.get("number_of_sdbs").asInt());
+        assertEquals(NUMBER_OF_SDBS * 2, serialMetadata.get("number_of_data_nodes").asInt());
+        assertEquals(NUMBER_OF_SDBS * 3, serialMetadata.get("number_of_key_value_pairs").asInt());
+        assertEquals(3, serialMetadata.get("number_of_unique_owner_groups").asInt());
+        assertEquals(5, serialMetadata.get("number_of_unique_iam_roles").asInt());
+        assertEquals(4, serialMetadata.get("number_of_unique_non_owner_groups").asInt());
+
+        for (String field : Lists.newArrayList("number_of_sdbs", "number_of_data_nodes",
+                "number_of_key_value_pairs", "number_of_unique_owner_groups",
+                "number_of_unique_iam_roles", "number_of_unique_non_owner_groups")) {
+            assertEquals(serialMetadata.get(field), parallelMetadata.get(field));
+        }
+
+        verify(storeService, times(NUMBER_OF_SDBS + 1)).put(anyString(), any(byte[].class));
+        verify(otherStoreService, times(NUMBER_OF_SDBS + 1)).put(anyString(), any(byte[].class));
+    }
+
+    @Test
+    public void test_that_incremental_backup_only_uploads_changed_sdbs() throws IOException {
+        String previousPrefix = "2000-01-01-00-00-00";
+        ObjectNode previousMetadata = (ObjectNode) runBackup(newOperation());
+        previousMetadata.get("sdb_backups").forEach(entry -> ((ObjectNode) entry).put("prefix", previousPrefix));
+
+        mockVaultRead("app/sdb-3/secret-a", ImmutableMap.of("k1", "changed", "k2", "v2"));
+
+        CreateCerberusBackupOperation operation = newOperation();
+        for (S3StoreService store : Lists.newArrayList(storeService, otherStoreService)) {
+            when(store.listFoldersUnderPartialPath("")).thenReturn(Sets.newHashSet(previousPrefix));
+            when(store.get(previousPrefix + '/' + METADATA_KEY))
+                    .thenReturn(Optional.of(objectMapper.writeValueAsString(previousMetadata)));
+        }
+
+        JsonNode metadata = runBackup(operation, CreateCerberusBackupCommand.INCREMENTAL_LONG_ARG);
+
+        verify(storeService).put(endsWith("/sdb-3"), any(byte[].class));
+        verify(storeService, times(2)).put(anyString(), any(byte[].class));
+        verify(otherStoreService, times(2)).put(anyString(), any(byte[].class));
+
+        JsonNode sdbBackups = metadata.get("sdb_backups");
+        assertEquals(NUMBER_OF_SDBS, sdbBackups.size());
+        assertEquals(previousPrefix, sdbBackups.get("sdb-2").get("prefix").asText());
+        assertNotEquals(previousPrefix, sdbBackups.get("sdb-3").get("prefix").asText());
+        assertNotEquals(previousMetadata.get("sdb_backups").get("sdb-3").get("hash"), sdbBackups.get("sdb-3").get("hash"));
+        assertEquals(NUMBER_OF_SDBS * 3, metadata.get("number_of_key_value_pairs").asInt());
+    }
+
+    @Test
+    public void test_that_sdb_backups_are_compressed_with_the_codec_recorded_in_the_metadata() throws IOException {
+        JsonNode metadata = runBackup(newOperation(), CreateCerberusBackupCommand.COMPRESSION_LONG_ARG, "gzip");
+
+        assertEquals("GZIP", metadata.get("compression").asText());
+        assertEquals("GZIP", metadata.get("sdb_backups").get("sdb-3").get("compression").asText());
+
+        ArgumentCaptor<byte[]> sdbBackup = ArgumentCaptor.forClass(byte[].class);
+        verify(storeService).put(endsWith("/sdb-3"), sdbBackup.capture());
+        JsonNode sdb = objectMapper.readTree(BackupCompression.GZIP.decompress(sdbBackup.getValue()));
+        assertEquals("SDB 3", sdb.get("name").asText());
+        assertEquals("v3", sdb.get("data").get("app/sdb-3/nested/secret-b").get("k3").asText());
+    }
+
+    @Test
+    public void test_that_packed_backups_store_sdbs_in_segments_with_an_offset_index() throws IOException {
+        JsonNode metadata = runBackup(newOperation(), CreateCerberusBackupCommand.SEGMENT_SIZE_LONG_ARG, "1");
+
+        ArgumentCaptor<byte[]> segment = ArgumentCaptor.forClass(byte[].class);
+        verify(storeService).put(endsWith("/segment-00000"), segment.capture());
+        verify(storeService, times(2)).put(anyString(), any(byte[].class));
+        verify(otherStoreService, times(2)).put(anyString(), any(byte[].class));
+
+        long nextOffset = 0;
+        for (JsonNode entry : metadata.get("sdb_backups")) {
+            assertEquals("segment-00000", entry.get("segment").asText());
+            nextOffset = Math.max(nextOffset, entry.get("offset").asLong() + entry.get("length").asLong());
+        }
+        assertEquals(segment.getValue().length, nextOffset);
+
+        JsonNode entry = metadata.get("sdb_backups").get("sdb-3");
+        int offset = entry.get("offset").asInt();
+        JsonNode sdb = objectMapper.readTree(Arrays.copyOfRange(segment.getValue(),
+                offset, offset + entry.get("length").asInt()));
+        assertEquals("SDB 3", sdb.get("name").asText());
+    }
+
+    @Test
+    public void test_that_a_failed_backup_can_be_resumed_from_its_journal() throws IOException {
+        int completedSdbs = 10;
+        CreateCerberusBackupOperation failingOperation = newOperation();
+        // with one thread per stage the SDBs are uploaded in order, so every SDB before the failed one is stored
+        doThrow(new RuntimeException("slow down"))
+                .when(storeService).put(endsWith("/sdb-" + completedSdbs), any(byte[].class));
+
+        CreateCerberusBackupCommand command = new CreateCerberusBackupCommand();
+        new JCommander(command).parse(CreateCerberusBackupCommand.BACKUP_REGIONS_LONG_ARG, REGION,
+                CreateCerberusBackupCommand.BACKUP_REGIONS_LONG_ARG, OTHER_REGION,
+                CreateCerberusBackupCommand.PARALLELISM_LONG_ARG, "1",
+                CreateCerberusBackupCommand.SERIALIZE_THREADS_LONG_ARG, "1",
+                CreateCerberusBackupCommand.UPLOAD_THREADS_LONG_ARG, "1");
+        try {
+            failingOperation.run(command);
+            fail("expected the backup to fail");
+        } catch (RuntimeException e) {
+            // expected
+        }
+
+        ArgumentCaptor<String> journalPath = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<byte[]> journalJson = ArgumentCaptor.forClass(byte[].class);
+        verify(storeService, atLeastOnce()).put(journalPath.capture(), journalJson.capture());
+        String prefix = journalPath.getValue().substring(0, journalPath.getValue().indexOf('/'));
+        assertEquals(prefix + '/' + JOURNAL_KEY, journalPath.getValue());
+        JsonNode journal = objectMapper.readTree(journalJson.getValue());
+        assertEquals(completedSdbs, journal.get("sdb_backups").size());
+        assertEquals(completedSdbs, journal.get("sdb_metadata").size());
+        for (int i = 0; i < completedSdbs; i++) {
+            assertTrue(journal.get("sdb_backups").has("sdb-" + i));
+        }
+
+        CreateCerberusBackupOperation operation = newOperation();
+        for (S3StoreService store : Lists.newArrayList(storeService, otherStoreService)) {
+            when(store.get(prefix + '/' + JOURNAL_KEY))
+                    .thenReturn(Optional.of(new String(journalJson.getValue(), StandardCharsets.UTF_8)));
+        }
+
+        JsonNode metadata = runBackup(operation, CreateCerberusBackupCommand.RESUME_LONG_ARG, prefix);
+
+        for (int i = 0; i < NUMBER_OF_SDBS; i++) {
+            int timesBackedUp = i < completedSdbs ? 0 : 1;
+            verify(storeService, times(timesBackedUp)).put(endsWith("/sdb-" + i), any(byte[].class));
+            verify(otherStoreService, times(timesBackedUp)).put(endsWith("/sdb-" + i), any(byte[].class));
+        }
+        for (int i = 0; i < completedSdbs; i++) {
+            // only read by the failed backup
+            verify(cerberusAdminClient, times(1)).readDataGenerically("app/sdb-" + i + "/secret-a");
+            verify(cerberusAdminClient, times(1)).readDataGenerically("app/sdb-" + i + "/nested/secret-b");
+        }
+        verify(storeService, times(NUMBER_OF_SDBS - completedSdbs + 1)).put(startsWith(prefix + '/'), any(byte[].class));
+        assertEquals(NUMBER_OF_SDBS, metadata.get("sdb_backups").size());
+        assertEquals(NUMBER_OF_SDBS * 3, metadata.get("number_of_key_value_pairs").asInt());
+        assertEquals(3, metadata.get("number_of_unique_owner_groups").asInt());
+    }
+
+    @Test
+    public void test_that_sdbs_whose_names_map_to_the_same_key_are_rejected_before_backing_up() {
+        List<SafeDepositBox> sdbs = new LinkedList<>(cerberusAdminClient.getAllSdbMetadata());
+        SafeDepositBox collidingSdb = new SafeDepositBox();
+        collidingSdb.setName("sdb-3");
+        collidingSdb.setPath("app/sdb-3-copy/");
+        sdbs.add(collidingSdb);
+        when(cerberusAdminClient.getAllSdbMetadata()).thenReturn(sdbs);
+        CreateCerberusBackupOperation operation = newOperation();
+
+        CreateCerberusBackupCommand command = new CreateCerberusBackupCommand();
+        new JCommander(command).parse(CreateCerberusBackupCommand.BACKUP_REGIONS_LONG_ARG, REGION);
+        try {
+            operation.run(command);
+            fail("expected the backup to be rejected");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("sdb-3: [SDB 3, sdb-3]"));
+        }
+
+        verify(storeService, never()).put(anyString(), any(byte[].class));
+    }
+
+    private CreateCerberusBackupOperation newOperation() {
+        CerberusAdminClientFactory cerberusAdminClientFactory = mock(CerberusAdminClientFactory.class);
+        when(cerberusAdminClientFactory.createCerberusAdminClient(anyString())).thenReturn(cerberusAdminClient);
+
+        CreateCerberusBackupOperation operation = spy(new CreateCerberusBackupOperation(cerberusAdminClientFactory,
+                configStore, mock(MetricsService.class), new EnvironmentMetadata("test", REGION)));
+
+        storeService = mock(S3StoreService.class);
+        otherStoreService = mock(S3StoreService.class);
+        when(storeService.get(anyString())).thenReturn(Optional.empty());
+        when(otherStoreService.get(anyString())).thenReturn(Optional.empty());
+        doReturn(storeService).when(operation).getEncryptedStoreServiceForRegion(REGION);
+        doReturn(otherStoreService).when(operation).getEncryptedStoreServiceForRegion(OTHER_REGION);
+        return operation;
+    }
+
+    /**
+     * Runs a backup to both regions and returns the backup metadata that was saved
+     */
+    private JsonNode runBackup(CreateCerberusBackupOperation operation, String... args) throws IOException {
+        List<String> allArgs = Lists.newArrayList(
+                CreateCerberusBackupCommand.BACKUP_REGIONS_LONG_ARG, REGION,
+                CreateCerberusBackupCommand.BACKUP_REGIONS_LONG_ARG, OTHER_REGION,
+                CreateCerberusBackupCommand.QUEUE_SIZE_LONG_ARG, "2");
+        allArgs.addAll(Arrays.asList(args));
+
+        CreateCerberusBackupCommand command = new CreateCerberusBackupCommand();
+        new JCommander(command).parse(allArgs.toArray(new String[allArgs.size()]));
+
+        operation.run(command);
+
+        ArgumentCaptor<byte[]> metadataJson = ArgumentCaptor.forClass(byte[].class);
+        ArgumentCaptor<byte[]> otherMetadataJson = ArgumentCaptor.forClass(byte[].class);
+        verify(storeService).put(endsWith('/' + METADATA_KEY), metadataJson.capture());
+        verify(otherStoreService).put(endsWith('/' + METADATA_KEY), otherMetadataJson.capture());
+        assertArrayEquals(metadataJson.getValue(), otherMetadataJson.getValue());
+        return objectMapper.readTree(metadataJson.getValue());
+    }
+
+    private void mockVaultList(String path, String... keys) {
+        VaultListResponse response = mock(VaultListResponse.class);
+        when(response.getKeys()).thenReturn(Lists.newArrayList(keys));
+        when(cerberusAdminClient.list(path)).thenReturn(response);
+    }
+
+    private void mockVaultRead(String path, Map<String, Object> data) {
+        CerberusAdminClient.GenericVaultResponse response = mock(CerberusAdminClient.GenericVaultResponse.class);
+        when(response.getData()).thenReturn(data);
+        doReturn(response).when(cerberusAdminClient).readDataGenerically(path);
+    }
+}
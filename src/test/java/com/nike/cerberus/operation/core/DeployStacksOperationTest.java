@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.operation.core;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategy;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.google.inject.Injector;
+import com.nike.cerberus.command.core.DeployStacksCommand;
+import com.nike.cerberus.command.core.UpdateStackCommand;
+import com.nike.cerberus.command.gateway.CreateGatewayClusterCommand;
+import com.nike.cerberus.domain.environment.StackName;
+import com.nike.cerberus.domain.input.EnvironmentConfig;
+import com.nike.cerberus.operation.gateway.CreateGatewayClusterOperation;
+import com.nike.cerberus.store.ConfigStore;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.stubbing.Answer;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DeployStacksOperationTest {
+
+    private ConfigStore configStore;
+
+    private UpdateStackOperation updateStackOperation;
+
+    private CreateGatewayClusterOperation createGatewayClusterOperation;
+
+    private Injector injector;
+
+    private DeployStacksOperation operation;
+
+    private DeployStacksCommand command;
+
+    private final List<String> deployedStacks = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setup() throws Exception {
+        configStore = mock(ConfigStore.class);
+        updateStackOperation = mock(UpdateStackOperation.class);
+        createGatewayClusterOperation = mock(CreateGatewayClusterOperation.class);
+
+        injector = mock(Injector.class);
+        when(injector.getInstance(UpdateStackOperation.class)).thenReturn(updateStackOperation);
+        when(injector.getInstance(CreateGatewayClusterOperation.class)).thenReturn(createGatewayClusterOperation);
+        when(updateStackOperation.isRunnable(any(UpdateStackCommand.class))).thenReturn(true);
+        when(createGatewayClusterOperation.isRunnable(any(CreateGatewayClusterCommand.class))).thenReturn(true);
+
+        for (StackName stackName : StackName.values()) {
+            when(configStore.getStackId(stackName)).thenReturn(stackName.getName() + "-stack-id");
+        }
+
+        ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
+        mapper.setPropertyNamingStrategy(PropertyNamingStrategy.KEBAB_CASE);
+        InputStream yamlStream = getClass().getClassLoader().getResourceAsStream("environment.yaml");
+        operation = new DeployStacksOperation(configStore, injector,
+                Optional.of(mapper.readValue(yamlStream, EnvironmentConfig.class)));
+        command = new DeployStacksCommand();
+    }
+
+    @Test
+    public void test_that_independent_stacks_are_updated_in_parallel_after_their_dependencies() {
+        CountDownLatch gatewayStarted = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            UpdateStackCommand updateStackCommand = (UpdateStackCommand) invocation.getArguments()[0];
+            if (updateStackCommand.getStackName() == StackName.CMS) {
+                // cms can only finish if the gateway update runs at the same time
+                assertTrue(gatewayStarted.await(5, TimeUnit.SECONDS));
+            }
+            deployedStacks.add(updateStackCommand.getStackName().getName());
+            if (updateStackCommand.getStackName() == StackName.GATEWAY) {
+                gatewayStarted.countDown();
+            }
+            return null;
+        }).when(updateStackOperation).run(any(UpdateStackCommand.class));
+
+        operation.run(command);
+
+        assertEquals(5, deployedStacks.size());
+        assertEquals("base", deployedStacks.get(0));
+        assertEquals("consul", deployedStacks.get(1));
+        assertEquals("vault", deployedStacks.get(2));
+        assertEquals("gateway", deployedStacks.get(3));
+        assertEquals("cms", deployedStacks.get(4));
+    }
+
+    @Test
+    public void test_that_a_created_gateway_waits_for_cms() {
+        when(configStore.getStackId(StackName.GATEWAY)).thenReturn(null);
+        doAnswer(recordStack()).when(updateStackOperation).run(any(UpdateStackCommand.class));
+        doAnswer(invocation -> {
+            CreateGatewayClusterCommand createCommand = (CreateGatewayClusterCommand) invocation.getArguments()[0];
+            assertEquals("ami-4444", createCommand.getStackDelegate().getAmiId());
+            deployedStacks.add("gateway");
+            return null;
+        }).when(createGatewayClusterOperation).run(any(CreateGatewayClusterCommand.class));
+
+        command.getStackNames().add("cms");
+        command.getStackNames().add("gateway");
+        operation.run(command);
+
+        assertEquals(2, deployedStacks.size());
+        assertEquals("cms", deployedStacks.get(0));
+        assertEquals("gateway", deployedStacks.get(1));
+    }
+
+    @Test
+    public void test_that_stacks_depending_on_a_failed_stack_are_not_deployed() {
+        doAnswer(invocation -> {
+            UpdateStackCommand updateStackCommand = (UpdateStackCommand) invocation.getArguments()[0];
+            if (updateStackCommand.getStackName() == StackName.VAULT) {
+                throw new RuntimeException("update failed");
+            }
+            deployedStacks.add(updateStackCommand.getStackName().getName());
+            return null;
+        }).when(updateStackOperation).run(any(UpdateStackCommand.class));
+
+        try {
+            operation.run(command);
+            fail("expected the failed vault update to fail the deployment");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("[vault, cms, gateway]"));
+        }
+
+        assertEquals(2, deployedStacks.size());
+        assertEquals("base", deployedStacks.get(0));
+        assertEquals("consul", deployedStacks.get(1));
+    }
+
+    @Test
+    public void test_that_the_environment_yaml_is_required() {
+        assertTrue(operation.isRunnable(command));
+
+        operation = new DeployStacksOperation(configStore, injector, Optional.empty());
+
+        assertFalse(operation.isRunnable(command));
+    }
+
+    @Test
+    public void test_that_only_known_deployable_stacks_are_runnable() {
+        command.getStackNames().add("vault");
+        assertTrue(operation.isRunnable(command));
+
+        command.getStackNames().add("not-a-stack");
+        assertFalse(operation.isRunnable(command));
+
+        command.getStackNames().remove("not-a-stack");
+        command.getStackNames().add("lambda");
+        assertFalse(operation.isRunnable(command));
+    }
+
+    private Answer<Void> recordStack() {
+        return invocation -> {
+            UpdateStackCommand updateStackCommand = (UpdateStackCommand) invocation.getArguments()[0];
+            deployedStacks.add(updateStackCommand.getStackName().getName());
+            return null;
+        };
+    }
+}
@@ -16,23 +16,53 @@
 
 package com.nike.cerberus.operation.core;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.nike.cerberus.client.CerberusAdminClient;
 import com.nike.cerberus.client.CerberusAdminClientFactory;
+import com.nike.cerberus.domain.backup.BackupCompression;
+import com.nike.cerberus.domain.backup.SdbBackupEntry;
 import com.nike.cerberus.module.CerberusModule;
 import com.nike.cerberus.service.ConsoleService;
+import com.nike.cerberus.service.S3StoreService;
 import com.nike.vault.client.VaultAdminClient;
+import com.nike.vault.client.model.VaultListResponse;
 import org.apache.commons.io.IOUtils;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.stream.Stream;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
 public class RestoreCompleteCerberusDataFromS3BackupOperationTest {
@@ -66,7 +96,212 @@ public class RestoreCompleteCerberusDataFromS3BackupOperationTest {
 
     }
 
+    @Test
+    public void test_that_get_sdb_backups_uses_listed_keys_when_metadata_has_no_manifest() throws IOException {
+        JsonNode backupMetadata = new ObjectMapper().readTree("{\"number_of_sdbs\": 2}");
+
+        Map<String, SdbBackupEntry> sdbBackups = operation.getSdbBackups(backupMetadata,
+                Stream.of("sdb-b", "sdb-a"), "2017-07-01-00-00-00");
+
+        assertEquals(Lists.newArrayList("sdb-a", "sdb-b"), Lists.newArrayList(sdbBackups.keySet()));
+        assertEquals("2017-07-01-00-00-00", sdbBackups.get("sdb-a").getPrefix());
+        assertEquals(BackupCompression.NONE, sdbBackups.get("sdb-a").getCompression());
+        assertNull(sdbBackups.get("sdb-a").getSegment());
+    }
+
+    @Test
+    public void test_that_get_sdb_backups_resolves_the_prefix_of_each_sdb_from_the_manifest() throws IOException {
+        JsonNode backupMetadata = new ObjectMapper().readTree("{\"compression\": \"LZ4\", \"sdb_backups\": {" +
+                "\"sdb-a\": {\"hash\": \"aaa\", \"prefix\": \"2017-06-01-00-00-00\"}," +
+                "\"sdb-b\": {\"hash\": \"bbb\", \"prefix\": \"2017-07-01-00-00-00\", \"compression\": \"LZ4\"}}}");
+
+        Map<String, SdbBackupEntry> sdbBackups = operation.getSdbBackups(backupMetadata,
+                Stream.of("sdb-b").peek(key -> fail("keys should not be listed when there is a manifest")),
+                "2017-07-01-00-00-00");
+
+        assertEquals(Lists.newArrayList("sdb-a", "sdb-b"), Lists.newArrayList(sdbBackups.keySet()));
+        assertEquals("2017-06-01-00-00-00", sdbBackups.get("sdb-a").getPrefix());
+        assertEquals(BackupCompression.NONE, sdbBackups.get("sdb-a").getCompression());
+        assertEquals(BackupCompression.LZ4, sdbBackups.get("sdb-b").getCompression());
+    }
+
+    @Test
+    public void test_that_packed_sdbs_are_grouped_by_segment() {
+        Map<String, SdbBackupEntry> sdbBackups = new TreeMap<>();
+        sdbBackups.put("sdb-a", packedEntry("2017-07-01-00-00-00", "segment-00000", 0, 10));
+        sdbBackups.put("sdb-b", packedEntry("2017-07-01-00-00-00", "segment-00001", 0, 10));
+        sdbBackups.put("sdb-c", packedEntry("2017-07-01-00-00-00", "segment-00000", 10, 5));
+        sdbBackups.put("sdb-d", new SdbBackupEntry("ddd", "2017-06-01-00-00-00", BackupCompression.NONE));
+
+        Map<String, List<String>> objectPathToSdbKeys = operation.groupByObjectPath(sdbBackups);
+
+        assertEquals(3, objectPathToSdbKeys.size());
+        assertEquals(Lists.newArrayList("sdb-a", "sdb-c"),
+                objectPathToSdbKeys.get("2017-07-01-00-00-00/segment-00000"));
+        assertEquals(Lists.newArrayList("sdb-b"), objectPathToSdbKeys.get("2017-07-01-00-00-00/segment-00001"));
+        assertEquals(Lists.newArrayList("sdb-d"), objectPathToSdbKeys.get("2017-06-01-00-00-00/sdb-d"));
+    }
+
+    @Test
+    public void test_that_packed_sdb_content_is_sliced_from_a_downloaded_segment() {
+        S3StoreService storeService = mock(S3StoreService.class);
+        byte[] segment = "{\"a\":1}{\"b\":22}".getBytes(StandardCharsets.UTF_8);
+
+        byte[] content = operation.getSdbBackupContent("prefix/segment-00000",
+                packedEntry("prefix", "segment-00000", 7, 8), segment, storeService);
+
+        assertEquals("{\"b\":22}", new String(content, StandardCharsets.UTF_8));
+        verifyZeroInteractions(storeService);
+    }
+
+    @Test
+    public void test_that_a_single_packed_sdb_is_read_with_a_range_get() {
+        S3StoreService storeService = mock(S3StoreService.class);
+        byte[] expected = "{\"b\":22}".getBytes(StandardCharsets.UTF_8);
+        when(storeService.getBytes("prefix/segment-00000", 7, 14)).thenReturn(Optional.of(expected));
+
+        byte[] content = operation.getSdbBackupContent("prefix/segment-00000",
+                packedEntry("prefix", "segment-00000", 7, 8), null, storeService);
+
+        assertArrayEquals(expected, content);
+    }
+
+    @Test
+    public void test_that_parallel_restore_keeps_the_order_of_each_sdbs_restore_steps() {
+        S3StoreService storeService = mock(S3StoreService.class);
+        CerberusAdminClient client = mock(CerberusAdminClient.class);
+        when(client.list(anyString())).thenReturn(mock(VaultListResponse.class));
+
+        Map<String, SdbBackupEntry> sdbBackups = new TreeMap<>();
+        for (int i = 0; i < 20; i++) {
+            sdbBackups.put("sdb-" + i, new SdbBackupEntry("hash", "prefix", BackupCompression.NONE));
+            when(storeService.getBytes("prefix/sdb-" + i)).thenReturn(Optional.of(sdbJson(i)));
+        }
+        doThrow(new RuntimeException("fake restore failure")).when(client).restoreMetadata(sdbMetadataJson(7));
+
+        Map<String, Throwable> failures = operation.restoreSdbs(sdbBackups, storeService, client, 4, false,
+                new RestoreCerberusBackupOperation.SecretCounts());
+
+        assertEquals(Lists.newArrayList("sdb-7"), Lists.newArrayList(failures.keySet()));
+        for (int i = 0; i < 20; i++) {
+            if (i == 7) {
+                continue;
+            }
+            InOrder inOrder = inOrder(client);
+            inOrder.verify(client).restoreMetadata(sdbMetadataJson(i));
+            inOrder.verify(client).list("app/sdb-" + i);
+            inOrder.verify(client).writeJson("app/sdb-" + i + "/secret", ImmutableMap.of("key", "value-" + i));
+        }
+        verify(client, never()).writeJson(eq("app/sdb-7/secret"), anyMapOf(String.class, Object.class));
+    }
+
+    @Test
+    public void test_that_a_segment_is_downloaded_once_for_all_of_its_sdbs() {
+        S3StoreService storeService = mock(S3StoreService.class);
+        CerberusAdminClient client = mock(CerberusAdminClient.class);
+        when(client.list(anyString())).thenReturn(mock(VaultListResponse.class));
+
+        ByteArrayOutputStream segment = new ByteArrayOutputStream();
+        Map<String, SdbBackupEntry> sdbBackups = new TreeMap<>();
+        for (int i = 0; i < 5; i++) {
+            byte[] json = sdbJson(i);
+            sdbBackups.put("sdb-" + i, packedEntry("prefix", "segment-00000", segment.size(), json.length));
+            segment.write(json, 0, json.length);
+        }
+        when(storeService.getBytes("prefix/segment-00000")).thenReturn(Optional.of(segment.toByteArray()));
+
+        Map<String, Throwable> failures = operation.restoreSdbs(sdbBackups, storeService, client, 3, false,
+                new RestoreCerberusBackupOperation.SecretCounts());
+
+        assertTrue(failures.isEmpty());
+        verify(storeService, times(1)).getBytes("prefix/segment-00000");
+        for (int i = 0; i < 5; i++) {
+            verify(client).writeJson("app/sdb-" + i + "/secret", ImmutableMap.of("key", "value-" + i));
+        }
+    }
+
+    @Test
+    public void test_that_diff_restore_only_writes_and_deletes_the_secrets_that_differ() throws IOException {
+        CerberusAdminClient client = mock(CerberusAdminClient.class);
+        mockVaultList(client, "app/sdb", "same", "changed", "stale", "nested/");
+        mockVaultList(client, "app/sdb/nested", "n");
+        mockVaultRead(client, "app/sdb/same", ImmutableMap.of("key", "value", "obj", ImmutableMap.of("num", 1.0)));
+        mockVaultRead(client, "app/sdb/changed", ImmutableMap.of("key", "old"));
+        mockVaultRead(client, "app/sdb/stale", ImmutableMap.of("key", "value"));
+        mockVaultRead(client, "app/sdb/nested/n", ImmutableMap.of("flag", true));
+
+        String json = "{\"path\":\"app/sdb/\",\"data\":{" +
+                "\"app/sdb/same\":{\"key\":\"value\",\"obj\":{\"num\":1}}," +
+                "\"app/sdb/changed\":{\"key\":\"new\"}," +
+                "\"app/sdb/added\":{\"key\":\"value\"}," +
+                "\"app/sdb/nested/n\":{\"flag\":true}}}";
+        RestoreCerberusBackupOperation.SecretCounts counts = new RestoreCerberusBackupOperation.SecretCounts();
+
+        operation.processBackup(json.getBytes(StandardCharsets.UTF_8), BackupCompression.NONE, client, true, counts);
+
+        InOrder inOrder = inOrder(client);
+        inOrder.verify(client).restoreMetadata("{\"path\":\"app/sdb/\"}");
+        inOrder.verify(client).delete("app/sdb/stale");
+        verify(client).writeJson("app/sdb/changed", ImmutableMap.of("key", "new"));
+        verify(client).writeJson("app/sdb/added", ImmutableMap.of("key", "value"));
+        verify(client, never()).writeJson(eq("app/sdb/same"), anyMapOf(String.class, Object.class));
+        verify(client, never()).writeJson(eq("app/sdb/nested/n"), anyMapOf(String.class, Object.class));
+        verify(client, never()).delete("app/sdb/same");
+
+        assertEquals(2, counts.written.get());
+        assertEquals(1, counts.deleted.get());
+        assertEquals(2, counts.skipped.get());
+    }
+
+    @Test
+    public void test_that_compressed_backups_are_streamed_with_the_metadata_restored_first() throws IOException {
+        CerberusAdminClient client = mock(CerberusAdminClient.class);
+        when(client.list(anyString())).thenReturn(mock(VaultListResponse.class));
 
+        // data serialized ahead of the metadata must still be written after the metadata is restored
+        String json = "{\"name\":\"sdb\",\"data\":{" +
+                "\"app/sdb/a\":{\"key\":\"value\",\"obj\":{\"nested\":\"value\"}}," +
+                "\"app/sdb/b\":{\"flag\":true}}," +
+                "\"path\":\"app/sdb/\",\"user_group_permissions\":{\"group\":\"read\"}}";
+        byte[] compressed = BackupCompression.GZIP.compress(json.getBytes(StandardCharsets.UTF_8));
+        RestoreCerberusBackupOperation.SecretCounts counts = new RestoreCerberusBackupOperation.SecretCounts();
 
+        operation.processBackup(compressed, BackupCompression.GZIP, client, false, counts);
+
+        InOrder inOrder = inOrder(client);
+        inOrder.verify(client).restoreMetadata(
+                "{\"name\":\"sdb\",\"path\":\"app/sdb/\",\"user_group_permissions\":{\"group\":\"read\"}}");
+        inOrder.verify(client).writeJson("app/sdb/a",
+                ImmutableMap.of("key", "value", "obj", ImmutableMap.of("nested", "value")));
+        inOrder.verify(client).writeJson("app/sdb/b", ImmutableMap.of("flag", true));
+        assertEquals(2, counts.written.get());
+    }
+
+    private void mockVaultList(CerberusAdminClient client, String path, String... keys) {
+        VaultListResponse response = mock(VaultListResponse.class);
+        when(response.getKeys()).thenReturn(Lists.newArrayList(keys));
+        when(client.list(path)).thenReturn(response);
+    }
 
+    private void mockVaultRead(CerberusAdminClient client, String path, Map<String, Object> data) {
+        CerberusAdminClient.GenericVaultResponse response = mock(CerberusAdminClient.GenericVaultResponse.class);
+        when(response.getData()).thenReturn(data);
+        when(client.readDataGenerically(path)).thenReturn(response);
+    }
+
+    private byte[] sdbJson(int i) {
+        return String.format("{\"path\":\"app/sdb-%s/\",\"data\":{\"app/sdb-%s/secret\":{\"key\":\"value-%s\"}}}",
+                i, i, i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private String sdbMetadataJson(int i) {
+        return String.format("{\"path\":\"app/sdb-%s/\"}", i);
+    }
+
+    private SdbBackupEntry packedEntry(String prefix, String segment, long offset, long length) {
+        return new SdbBackupEntry("hash", prefix, BackupCompression.NONE)
+                .setSegment(segment)
+                .setOffset(offset)
+                .setLength(length);
+    }
 }
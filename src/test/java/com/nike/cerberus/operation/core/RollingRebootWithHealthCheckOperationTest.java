@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.operation.core;
+
+import com.amazonaws.services.ec2.model.Filter;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.Placement;
+import com.beust.jcommander.JCommander;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.nike.cerberus.command.core.RollingRebootWithHealthCheckCommand;
+import com.nike.cerberus.domain.environment.StackName;
+import com.nike.cerberus.service.AutoScalingService;
+import com.nike.cerberus.service.CloudFormationService;
+import com.nike.cerberus.service.Ec2Service;
+import com.nike.cerberus.service.HealthCheckService;
+import com.nike.cerberus.store.ConfigStore;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static com.nike.cerberus.service.HealthCheckService.HEALTH_CHECK_FAILED_CODE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RollingRebootWithHealthCheckOperationTest {
+
+    private static final int OK = 200;
+
+    private static final int FAILED = HEALTH_CHECK_FAILED_CODE;
+
+    private Ec2Service ec2Service;
+
+    private AutoScalingService autoScalingService;
+
+    private HealthCheckService healthCheckService;
+
+    private RollingRebootWithHealthCheckOperation operation;
+
+    /**
+     * The health check responses of each instance, one per poll, an instance returns 200 once its responses run out
+     */
+    private final Map<String, Queue<Integer>> responses = new LinkedHashMap<>();
+
+    private final AtomicInteger polls = new AtomicInteger();
+
+    @Before
+    public void setup() throws Exception {
+        ConfigStore configStore = mock(ConfigStore.class);
+        CloudFormationService cloudFormationService = mock(CloudFormationService.class);
+        ec2Service = mock(Ec2Service.class);
+        autoScalingService = mock(AutoScalingService.class);
+        healthCheckService = mock(HealthCheckService.class);
+
+        when(configStore.getStackId(StackName.CMS)).thenReturn("cms-stack-id");
+        when(cloudFormationService.getStackOutputs("cms-stack-id")).thenReturn(ImmutableMap.of(
+                CloudFormationService.AUTO_SCALING_GROUP_LOGICAL_ID_OUTPUT_KEY, "cms-asg"));
+        when(cloudFormationService.getStackParameters("cms-stack-id")).thenReturn(ImmutableMap.of(
+                CloudFormationService.MIN_INSTANCES_STACK_PARAMETER_KEY, "2"));
+        when(healthCheckService.checkAll(anyMap())).thenAnswer(invocation -> {
+            polls.incrementAndGet();
+            Map<?, ?> healthCheckUrls = (Map<?, ?>) invocation.getArguments()[0];
+            Map<Object, Integer> responseCodes = new LinkedHashMap<>();
+            healthCheckUrls.keySet().forEach(id -> {
+                Queue<Integer> instanceResponses = responses.get(id);
+                responseCodes.put(id, instanceResponses.isEmpty() ? OK : instanceResponses.poll());
+            });
+            return responseCodes;
+        });
+
+        operation = spy(new RollingRebootWithHealthCheckOperation(configStore, cloudFormationService, ec2Service,
+                autoScalingService, healthCheckService));
+        doNothing().when(operation).waitBetweenHealthChecks();
+    }
+
+    @Test
+    public void test_that_a_failed_health_check_restarts_the_count_of_healthy_responses() {
+        mockInstances(instance("i-1", "us-west-2a"));
+        // healthy before the reboot, fails 3 times, then is healthy 5 times before failing once more
+        responses.get("i-1").addAll(Lists.newArrayList(OK, FAILED, FAILED, FAILED, OK, OK, OK, OK, OK, FAILED));
+
+        operation.run(new RollingRebootWithHealthCheckCommand());
+
+        // the 10 healthy responses in a row needed after the reboot only start after the last failure
+        assertEquals(20, polls.get());
+        verify(ec2Service).rebootEc2Instance("i-1");
+        verify(autoScalingService).setInstanceStateToInService("cms-asg", "i-1");
+    }
+
+    @Test
+    public void test_that_an_instance_is_not_rebooted_while_another_instance_is_unhealthy() {
+        mockInstances(instance("i-1", "us-west-2a"), instance("i-2", "us-west-2b"));
+        // i-1 is rebooted once i-2 is healthy on the third poll, then i-2 is rebooted after i-1 is back on the 16th
+        responses.get("i-1").addAll(Lists.newArrayList(OK, OK, OK, FAILED, FAILED, FAILED));
+        responses.get("i-2").addAll(Lists.newArrayList(FAILED, FAILED));
+        for (int poll = 3; poll <= 17; poll++) {
+            responses.get("i-2").add(OK);
+        }
+        responses.get("i-2").addAll(Lists.newArrayList(FAILED, FAILED, FAILED));
+        AtomicInteger pollsBeforeStandby = new AtomicInteger();
+        doAnswer(invocation -> {
+            pollsBeforeStandby.compareAndSet(0, polls.get());
+            return null;
+        }).when(autoScalingService).setInstanceStateToStandby(anyString(), anyVararg());
+
+        operation.run(new RollingRebootWithHealthCheckCommand());
+
+        assertEquals(3, pollsBeforeStandby.get());
+        verify(ec2Service).rebootEc2Instance("i-1");
+        verify(ec2Service).rebootEc2Instance("i-2");
+    }
+
+    @Test
+    public void test_that_instances_rebooted_together_can_go_down_at_different_times() {
+        mockInstances(instance("i-1", "us-west-2a"), instance("i-2", "us-west-2b"));
+        // i-1 is back before i-2 goes down, so the two are never failing at the same time
+        responses.get("i-1").addAll(Lists.newArrayList(OK, FAILED, FAILED, FAILED));
+        responses.get("i-2").addAll(Lists.newArrayList(OK, OK, OK, OK, FAILED, FAILED, FAILED));
+        RollingRebootWithHealthCheckCommand command = new RollingRebootWithHealthCheckCommand();
+        new JCommander(command).parse("--stack-name", StackName.CMS.getName(),
+                RollingRebootWithHealthCheckCommand.BATCH_SIZE_LONG_ARG, "2");
+
+        operation.run(command);
+
+        // i-2 confirms its reboot on the 7th poll, and then needs 10 healthy responses in a row
+        assertEquals(17, polls.get());
+        verify(ec2Service).rebootEc2Instance("i-1", "i-2");
+        verify(autoScalingService).setInstanceStateToInService("cms-asg", "i-1", "i-2");
+    }
+
+    @Test
+    public void test_that_the_reboot_gives_up_on_an_instance_that_stays_unhealthy() {
+        mockInstances(instance("i-1", "us-west-2a"), instance("i-2", "us-west-2b"));
+        for (int i = 0; i < 100; i++) {
+            responses.get("i-2").add(FAILED);
+        }
+
+        try {
+            operation.run(new RollingRebootWithHealthCheckCommand());
+            fail("expected the reboot to give up");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("other unhealthy instances: [i-2]"));
+        }
+
+        assertEquals(60, polls.get());
+        verify(autoScalingService, never()).setInstanceStateToStandby(anyString(), anyVararg());
+        verify(ec2Service, never()).rebootEc2Instance(anyVararg());
+    }
+
+    @Test
+    public void test_that_a_batch_size_of_one_reboots_every_instance_alone() {
+        List<Instance> instances = Lists.newArrayList(
+                instance("i-1", "us-west-2a"), instance("i-2", "us-west-2b"), instance("i-3", "us-west-2c"));
+
+        List<List<Instance>> batches = RollingRebootWithHealthCheckOperation.getRebootBatches(instances, 1);
+
+        assertEquals(3, batches.size());
+        batches.forEach(batch -> assertEquals(1, batch.size()));
+    }
+
+    @Test
+    public void test_that_batches_never_hold_two_instances_in_the_same_zone() {
+        List<Instance> instances = Lists.newArrayList(
+                instance("i-1", "us-west-2a"), instance("i-2", "us-west-2a"), instance("i-3", "us-west-2a"),
+                instance("i-4", "us-west-2b"), instance("i-5", "us-west-2b"), instance("i-6", "us-west-2b"),
+                instance("i-7", "us-west-2c"), instance("i-8", "us-west-2c"), instance("i-9", "us-west-2c"));
+
+        List<List<Instance>> batches = RollingRebootWithHealthCheckOperation.getRebootBatches(instances, 5);
+
+        assertEquals(3, batches.size());
+        batches.forEach(batch -> {
+            assertEquals(3, batch.size());
+            assertEquals(3, batch.stream().map(instance -> instance.getPlacement().getAvailabilityZone()).distinct().count());
+        });
+    }
+
+    @Test
+    public void test_that_the_fullest_zones_are_drawn_from_first() {
+        List<Instance> instances = Lists.newArrayList(
+                instance("i-1", "us-west-2a"), instance("i-2", "us-west-2a"), instance("i-3", "us-west-2a"),
+                instance("i-4", "us-west-2b"), instance("i-5", "us-west-2c"));
+
+        List<List<Instance>> batches = RollingRebootWithHealthCheckOperation.getRebootBatches(instances, 2);
+
+        assertEquals(3, batches.size());
+        assertEquals(Lists.newArrayList("i-1", "i-4"), instanceIds(batches.get(0)));
+        assertEquals(Lists.newArrayList("i-2", "i-5"), instanceIds(batches.get(1)));
+        assertEquals(Lists.newArrayList("i-3"), instanceIds(batches.get(2)));
+    }
+
+    private void mockInstances(Instance... instances) {
+        for (Instance instance : instances) {
+            instance.setPublicDnsName(instance.getInstanceId() + ".example.com");
+            responses.put(instance.getInstanceId(), new LinkedList<>());
+        }
+        when(ec2Service.getInstancesByTag(anyString(), eq("cms-asg"), any(Filter.class)))
+                .thenReturn(Lists.newArrayList(instances));
+    }
+
+    private List<String> instanceIds(List<Instance> batch) {
+        return batch.stream().map(Instance::getInstanceId).collect(Collectors.toList());
+    }
+
+    private Instance instance(String instanceId, String availabilityZone) {
+        return new Instance()
+                .withInstanceId(instanceId)
+                .withPlacement(new Placement().withAvailabilityZone(availabilityZone));
+    }
+}
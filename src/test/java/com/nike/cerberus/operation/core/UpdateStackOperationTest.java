@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.operation.core;
+
+import com.amazonaws.services.cloudformation.model.Change;
+import com.amazonaws.services.cloudformation.model.ResourceChange;
+import com.amazonaws.services.cloudformation.model.StackStatus;
+import com.beust.jcommander.JCommander;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import com.nike.cerberus.command.StackDelegate;
+import com.nike.cerberus.command.core.UpdateStackCommand;
+import com.nike.cerberus.domain.cloudformation.BaseParameters;
+import com.nike.cerberus.domain.environment.StackName;
+import com.nike.cerberus.service.AmiTagCheckService;
+import com.nike.cerberus.service.CloudFormationService;
+import com.nike.cerberus.service.ConsoleService;
+import com.nike.cerberus.service.Ec2UserDataService;
+import com.nike.cerberus.store.ConfigStore;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Optional;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class UpdateStackOperationTest {
+
+    private static final String STACK_ID = "base-stack-id";
+
+    private static final String CHANGE_SET_ID = "change-set-id";
+
+    private CloudFormationService cloudFormationService;
+
+    private ConsoleService console;
+
+    private UpdateStackOperation operation;
+
+    private UpdateStackCommand command;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        ConfigStore configStore = mock(ConfigStore.class);
+        ObjectMapper cloudformationObjectMapper = mock(ObjectMapper.class);
+        cloudFormationService = mock(CloudFormationService.class);
+        console = mock(ConsoleService.class);
+
+        when(configStore.getStackId(StackName.BASE)).thenReturn(STACK_ID);
+        when(configStore.getStackParameters(StackName.BASE, BaseParameters.class)).thenReturn(new BaseParameters());
+        when(cloudformationObjectMapper.convertValue(any(BaseParameters.class), any(TypeReference.class)))
+                .thenReturn(new HashMap<>());
+        when(cloudFormationService.createChangeSet(eq(STACK_ID), anyMapOf(String.class, String.class),
+                eq((String) null), eq(true))).thenReturn(CHANGE_SET_ID);
+        when(cloudFormationService.waitForChangeSet(CHANGE_SET_ID)).thenReturn(Optional.of(Lists.newArrayList(
+                new Change().withResourceChange(new ResourceChange()
+                        .withAction("Modify")
+                        .withResourceType("AWS::EC2::SecurityGroup")
+                        .withLogicalResourceId("LoadBalancerSg")
+                        .withReplacement("False")))));
+        when(cloudFormationService.waitForStatus(eq(STACK_ID), any()))
+                .thenReturn(StackStatus.UPDATE_COMPLETE);
+
+        operation = new UpdateStackOperation(configStore, cloudFormationService, cloudformationObjectMapper,
+                mock(Ec2UserDataService.class), mock(AmiTagCheckService.class), console);
+
+        command = new UpdateStackCommand();
+        new JCommander(command).parse("--stack-name", StackName.BASE.getName(),
+                StackDelegate.OWNER_GROUP_LONG_ARG, "owner-group",
+                UpdateStackCommand.PREVIEW_CHANGES_LONG_ARG);
+    }
+
+    @Test
+    public void test_that_a_declined_preview_deletes_the_change_set_without_executing_it() throws Exception {
+        when(console.readLine(anyString())).thenReturn("no");
+
+        operation.run(command);
+
+        verify(cloudFormationService).deleteChangeSet(CHANGE_SET_ID);
+        verify(cloudFormationService, never()).executeChangeSet(anyString(), anyString());
+        verify(cloudFormationService, never()).waitForStatus(anyString(), any());
+    }
+
+    @Test
+    public void test_that_a_confirmed_preview_executes_the_change_set() throws Exception {
+        when(console.readLine(anyString())).thenReturn("proceed");
+
+        operation.run(command);
+
+        verify(cloudFormationService).executeChangeSet(STACK_ID, CHANGE_SET_ID);
+        verify(cloudFormationService, never()).deleteChangeSet(anyString());
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.operation.vault;
+
+import com.google.common.collect.Lists;
+import com.nike.cerberus.command.vault.UnsealVaultClusterCommand;
+import com.nike.cerberus.store.ConfigStore;
+import com.nike.cerberus.vault.VaultAdminClientFactory;
+import com.nike.vault.client.VaultAdminClient;
+import com.nike.vault.client.model.VaultSealStatusResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class UnsealVaultClusterOperationTest {
+
+    private VaultAdminClientFactory vaultAdminClientFactory;
+
+    private VaultAdminClient firstClient;
+
+    private VaultAdminClient secondClient;
+
+    private UnsealVaultClusterOperation operation;
+
+    @Before
+    public void setup() {
+        ConfigStore configStore = mock(ConfigStore.class);
+        when(configStore.getVaultKeys()).thenReturn(Lists.newArrayList("key-1", "key-2", "key-3"));
+
+        firstClient = client("https://first:8200");
+        secondClient = client("https://second:8200");
+        vaultAdminClientFactory = mock(VaultAdminClientFactory.class);
+        when(vaultAdminClientFactory.getClientsForCluster()).thenReturn(Lists.newArrayList(firstClient, secondClient));
+
+        operation = new UnsealVaultClusterOperation(configStore, vaultAdminClientFactory);
+    }
+
+    @Test
+    public void test_that_instances_are_unsealed_at_the_same_time_with_the_keys_in_order() {
+        CountDownLatch secondStarted = new CountDownLatch(1);
+        VaultSealStatusResponse firstKeySubmitted = sealStatus(true, 1);
+        doAnswer(invocation -> {
+            // the first instance can only get past its first key if the second instance is being unsealed as well
+            assertTrue(secondStarted.await(5, TimeUnit.SECONDS));
+            return firstKeySubmitted;
+        }).when(firstClient).unseal("key-1", false);
+        doAnswer(invocation -> {
+            secondStarted.countDown();
+            return firstKeySubmitted;
+        }).when(secondClient).unseal("key-1", false);
+
+        operation.run(new UnsealVaultClusterCommand());
+
+        for (VaultAdminClient client : Lists.newArrayList(firstClient, secondClient)) {
+            InOrder inOrder = inOrder(client);
+            inOrder.verify(client).unseal("key-1", false);
+            inOrder.verify(client).unseal("key-2", false);
+            inOrder.verify(client).unseal("key-3", false);
+        }
+    }
+
+    @Test
+    public void test_that_no_more_keys_are_submitted_once_an_instance_is_unsealed() {
+        VaultSealStatusResponse unsealed = sealStatus(false, 0);
+        when(firstClient.unseal("key-2", false)).thenReturn(unsealed);
+
+        operation.run(new UnsealVaultClusterCommand());
+
+        verify(firstClient, never()).unseal("key-3", false);
+        verify(secondClient).unseal("key-3", false);
+    }
+
+    @Test
+    public void test_that_an_instance_still_sealed_after_every_key_fails_the_unseal() {
+        VaultSealStatusResponse stillSealed = sealStatus(true, 3);
+        when(secondClient.unseal("key-3", false)).thenReturn(stillSealed);
+
+        try {
+            operation.run(new UnsealVaultClusterCommand());
+            fail("expected the sealed instance to fail the unseal");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("[https://second:8200]"));
+        }
+    }
+
+    @Test
+    public void test_that_a_failing_instance_does_not_stop_the_others_from_being_unsealed() {
+        doThrow(new RuntimeException("connection refused")).when(firstClient).unseal(anyString(), eq(false));
+
+        try {
+            operation.run(new UnsealVaultClusterCommand());
+            fail("expected the failed instance to fail the unseal");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("https://first:8200"));
+        }
+
+        verify(secondClient).unseal("key-3", false);
+    }
+
+    /**
+     * A client for an instance that is unsealed by the third key.
+     */
+    private VaultAdminClient client(String vaultUrl) {
+        VaultSealStatusResponse firstKeySubmitted = sealStatus(true, 1);
+        VaultSealStatusResponse secondKeySubmitted = sealStatus(true, 2);
+        VaultSealStatusResponse unsealed = sealStatus(false, 0);
+
+        VaultAdminClient client = mock(VaultAdminClient.class);
+        when(client.getVaultUrl()).thenReturn(vaultUrl);
+        when(client.unseal("key-1", false)).thenReturn(firstKeySubmitted);
+        when(client.unseal("key-2", false)).thenReturn(secondKeySubmitted);
+        when(client.unseal("key-3", false)).thenReturn(unsealed);
+        return client;
+    }
+
+    private VaultSealStatusResponse sealStatus(boolean sealed, int progress) {
+        VaultSealStatusResponse sealStatus = mock(VaultSealStatusResponse.class);
+        when(sealStatus.isSealed()).thenReturn(sealed);
+        when(sealStatus.getProgress()).thenReturn(progress);
+        when(sealStatus.getT()).thenReturn(3);
+        return sealStatus;
+    }
+}
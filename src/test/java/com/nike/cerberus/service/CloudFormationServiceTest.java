@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.service;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.cloudformation.AmazonCloudFormation;
+import com.amazonaws.services.cloudformation.model.Change;
+import com.amazonaws.services.cloudformation.model.ChangeSetStatus;
+import com.amazonaws.services.cloudformation.model.DeleteChangeSetRequest;
+import com.amazonaws.services.cloudformation.model.DescribeChangeSetRequest;
+import com.amazonaws.services.cloudformation.model.DescribeChangeSetResult;
+import com.amazonaws.services.cloudformation.model.DescribeStackEventsRequest;
+import com.amazonaws.services.cloudformation.model.DescribeStackEventsResult;
+import com.amazonaws.services.cloudformation.model.DescribeStacksRequest;
+import com.amazonaws.services.cloudformation.model.DescribeStacksResult;
+import com.amazonaws.services.cloudformation.model.GetTemplateRequest;
+import com.amazonaws.services.cloudformation.model.GetTemplateResult;
+import com.amazonaws.services.cloudformation.model.Output;
+import com.amazonaws.services.cloudformation.model.Parameter;
+import com.amazonaws.services.cloudformation.model.ResourceChange;
+import com.amazonaws.services.cloudformation.model.Stack;
+import com.amazonaws.services.cloudformation.model.StackEvent;
+import com.amazonaws.services.cloudformation.model.StackStatus;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.nike.cerberus.domain.EnvironmentMetadata;
+import org.junit.Before;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CloudFormationServiceTest {
+
+    private static final String STACK_ID = "fake-stack-id";
+
+    private static final String DEPLOYED_TEMPLATE_PATH = "/environment.yaml";
+
+    private static final String UPDATED_TEMPLATE_PATH = "/cerberus-lifecycle-cli.properties";
+
+    private AmazonCloudFormation cloudFormationClient;
+
+    private CloudFormationService cloudFormationService;
+
+    @Before
+    public void setup() {
+        cloudFormationClient = mock(AmazonCloudFormation.class);
+        cloudFormationService = new CloudFormationService(cloudFormationClient, mock(EnvironmentMetadata.class));
+    }
+
+    @Test
+    public void test_that_status_parameters_and_outputs_share_one_describe_stacks_call() {
+        mockStack(StackStatus.CREATE_COMPLETE, "output-value");
+
+        assertTrue(cloudFormationService.isStackPresent(STACK_ID));
+        assertEquals(ImmutableMap.of("parameter", "parameter-value"), cloudFormationService.getStackParameters(STACK_ID));
+        assertEquals(ImmutableMap.of("output", "output-value"), cloudFormationService.getStackOutputs(STACK_ID));
+
+        verify(cloudFormationClient, times(1)).describeStacks(any(DescribeStacksRequest.class));
+    }
+
+    @Test
+    public void test_that_updating_a_stack_invalidates_its_description() {
+        mockStack(StackStatus.CREATE_COMPLETE, "old-value");
+        assertEquals(ImmutableMap.of("output", "old-value"), cloudFormationService.getStackOutputs(STACK_ID));
+
+        cloudFormationService.updateStack(STACK_ID, ImmutableMap.of(), false);
+        mockStack(StackStatus.UPDATE_COMPLETE, "new-value");
+
+        assertEquals(StackStatus.UPDATE_COMPLETE, cloudFormationService.getStackStatus(STACK_ID));
+        assertEquals(ImmutableMap.of("output", "new-value"), cloudFormationService.getStackOutputs(STACK_ID));
+        verify(cloudFormationClient, times(2)).describeStacks(any(DescribeStacksRequest.class));
+    }
+
+    @Test
+    public void test_that_updating_a_stack_by_id_invalidates_its_description_by_name() {
+        String stackName = "fake-stack-name";
+        when(cloudFormationClient.describeStacks(new DescribeStacksRequest().withStackName(stackName)))
+                .thenReturn(new DescribeStacksResult().withStacks(new Stack()
+                        .withStackId(STACK_ID)
+                        .withStackName(stackName)
+                        .withStackStatus(StackStatus.CREATE_COMPLETE)))
+                .thenReturn(new DescribeStacksResult().withStacks(new Stack()
+                        .withStackId(STACK_ID)
+                        .withStackName(stackName)
+                        .withStackStatus(StackStatus.UPDATE_IN_PROGRESS)));
+        assertEquals(StackStatus.CREATE_COMPLETE, cloudFormationService.getStackStatus(stackName));
+
+        cloudFormationService.updateStack(STACK_ID, ImmutableMap.of(), false);
+
+        assertEquals(StackStatus.UPDATE_IN_PROGRESS, cloudFormationService.getStackStatus(stackName));
+        verify(cloudFormationClient, times(2)).describeStacks(new DescribeStacksRequest().withStackName(stackName));
+    }
+
+    @Test
+    public void test_that_missing_stacks_are_not_cached() {
+        AmazonServiceException error = new AmazonServiceException("Stack with id fake-stack-id does not exist");
+        error.setStatusCode(400);
+        when(cloudFormationClient.describeStacks(any(DescribeStacksRequest.class))).thenThrow(error);
+
+        assertFalse(cloudFormationService.isStackPresent(STACK_ID));
+        assertFalse(cloudFormationService.isStackPresent(STACK_ID));
+
+        verify(cloudFormationClient, times(2)).describeStacks(any(DescribeStacksRequest.class));
+    }
+
+    @Test
+    public void test_that_several_stacks_are_waited_on_in_one_loop_paging_through_new_events() {
+        Date now = new Date();
+        Date old = new DateTime(now).minusHours(1).toDate();
+
+        // stack a completes within the first poll, its events span two pages and end in events from before the wait
+        when(cloudFormationClient.describeStackEvents(new DescribeStackEventsRequest().withStackName("a")))
+                .thenReturn(new DescribeStackEventsResult()
+                        .withStackEvents(stackEvent("a", "a-3", "a", now), stackEvent("a", "a-2", "resource", now))
+                        .withNextToken("page-2"));
+        when(cloudFormationClient.describeStackEvents(
+                new DescribeStackEventsRequest().withStackName("a").withNextToken("page-2")))
+                .thenReturn(new DescribeStackEventsResult()
+                        .withStackEvents(stackEvent("a", "a-1", "resource", now), stackEvent("a", "a-0", "a", old))
+                        .withNextToken("page-3"));
+        when(cloudFormationClient.describeStacks(new DescribeStacksRequest().withStackName("a")))
+                .thenReturn(new DescribeStacksResult().withStacks(
+                        new Stack().withStackId("a").withStackStatus(StackStatus.CREATE_COMPLETE)));
+
+        // stack b is still in progress on the first poll, and only described again once it has a stack event
+        when(cloudFormationClient.describeStackEvents(new DescribeStackEventsRequest().withStackName("b")))
+                .thenReturn(new DescribeStackEventsResult().withStackEvents(stackEvent("b", "b-1", "resource", now)))
+                .thenReturn(new DescribeStackEventsResult().withStackEvents(
+                        stackEvent("b", "b-2", "b", now), stackEvent("b", "b-1", "resource", now)));
+        when(cloudFormationClient.describeStacks(new DescribeStacksRequest().withStackName("b")))
+                .thenReturn(new DescribeStacksResult().withStacks(
+                        new Stack().withStackId("b").withStackStatus(StackStatus.CREATE_IN_PROGRESS)))
+                .thenReturn(new DescribeStacksResult().withStacks(
+                        new Stack().withStackId("b").withStackStatus(StackStatus.ROLLBACK_COMPLETE)));
+
+        Map<String, StackStatus> statuses = cloudFormationService.waitForStatuses(Lists.newArrayList("a", "b"),
+                Sets.newHashSet(StackStatus.CREATE_COMPLETE, StackStatus.ROLLBACK_COMPLETE));
+
+        assertEquals(ImmutableMap.of("a", StackStatus.CREATE_COMPLETE, "b", StackStatus.ROLLBACK_COMPLETE), statuses);
+        verify(cloudFormationClient, never()).describeStackEvents(
+                new DescribeStackEventsRequest().withStackName("a").withNextToken("page-3"));
+        verify(cloudFormationClient, times(1)).describeStacks(new DescribeStacksRequest().withStackName("a"));
+        verify(cloudFormationClient, times(2)).describeStacks(new DescribeStacksRequest().withStackName("b"));
+    }
+
+    @Test
+    public void test_that_a_stack_is_described_when_its_events_cannot_be_read() {
+        AmazonServiceException error = new AmazonServiceException("Stack with id a does not exist");
+        error.setStatusCode(400);
+        when(cloudFormationClient.describeStackEvents(new DescribeStackEventsRequest().withStackName("a")))
+                .thenReturn(new DescribeStackEventsResult().withStackEvents(stackEvent("a", "a-1", "resource", new Date())))
+                .thenThrow(error);
+        when(cloudFormationClient.describeStacks(new DescribeStacksRequest().withStackName("a")))
+                .thenReturn(new DescribeStacksResult().withStacks(
+                        new Stack().withStackId("a").withStackStatus(StackStatus.DELETE_IN_PROGRESS)))
+                .thenThrow(error);
+
+        Map<String, StackStatus> statuses = cloudFormationService.waitForStatuses(Lists.newArrayList("a"),
+                Sets.newHashSet(StackStatus.DELETE_COMPLETE));
+
+        assertTrue(statuses.containsKey("a"));
+        assertNull(statuses.get("a"));
+        verify(cloudFormationClient, times(2)).describeStacks(new DescribeStacksRequest().withStackName("a"));
+    }
+
+    @Test
+    public void test_that_stack_outputs_are_searched_across_every_page_once() {
+        when(cloudFormationClient.describeStacks(new DescribeStacksRequest())).thenReturn(new DescribeStacksResult()
+                .withStacks(new Stack().withOutputs(new Output().withOutputKey("first").withOutputValue("1")))
+                .withNextToken("page-2"));
+        when(cloudFormationClient.describeStacks(new DescribeStacksRequest().withNextToken("page-2")))
+                .thenReturn(new DescribeStacksResult().withStacks(
+                        new Stack().withOutputs(new Output().withOutputKey("CerberusMetricsTopicArn").withOutputValue("arn")),
+                        new Stack().withOutputs(new Output().withOutputKey("first").withOutputValue("2"))));
+
+        assertEquals(Optional.of("arn"), cloudFormationService.searchStacksForOutput("CerberusMetricsTopicArn"));
+        assertEquals(Optional.of("1"), cloudFormationService.searchStacksForOutput("first"));
+        assertEquals(Optional.empty(), cloudFormationService.searchStacksForOutput("missing"));
+
+        verify(cloudFormationClient, times(2)).describeStacks(any(DescribeStacksRequest.class));
+    }
+
+    private StackEvent stackEvent(String stackId, String eventId, String physicalResourceId, Date timestamp) {
+        return new StackEvent()
+                .withStackId(stackId)
+                .withEventId(eventId)
+                .withPhysicalResourceId(physicalResourceId)
+                .withTimestamp(timestamp)
+                .withResourceType("AWS::Fake::Resource")
+                .withResourceStatus("CREATE_COMPLETE");
+    }
+
+    @Test
+    public void test_that_a_stack_with_the_same_parameters_and_template_is_up_to_date() {
+        mockStack(StackStatus.UPDATE_COMPLETE, "output-value");
+        // the generated templates are not on the test classpath, any resource will do
+        String template = cloudFormationService.getTemplateText(DEPLOYED_TEMPLATE_PATH);
+        when(cloudFormationClient.getTemplate(any(GetTemplateRequest.class)))
+                .thenReturn(new GetTemplateResult().withTemplateBody(template));
+
+        assertTrue(cloudFormationService.isStackUpToDate(STACK_ID,
+                ImmutableMap.of("parameter", "parameter-value"), null));
+        assertTrue(cloudFormationService.isStackUpToDate(STACK_ID,
+                ImmutableMap.of("parameter", "parameter-value"), DEPLOYED_TEMPLATE_PATH));
+        assertFalse(cloudFormationService.isStackUpToDate(STACK_ID,
+                ImmutableMap.of("parameter", "parameter-value"), UPDATED_TEMPLATE_PATH));
+        assertFalse(cloudFormationService.isStackUpToDate(STACK_ID,
+                ImmutableMap.of("parameter", "new-parameter-value"), null));
+        assertFalse(cloudFormationService.isStackUpToDate(STACK_ID, ImmutableMap.of(), null));
+    }
+
+    @Test
+    public void test_that_change_set_changes_are_read_across_pages() {
+        when(cloudFormationClient.describeChangeSet(new DescribeChangeSetRequest().withChangeSetName("change-set-id")))
+                .thenReturn(new DescribeChangeSetResult()
+                        .withStatus(ChangeSetStatus.CREATE_COMPLETE)
+                        .withChanges(new Change().withResourceChange(new ResourceChange().withLogicalResourceId("first")))
+                        .withNextToken("token"));
+        when(cloudFormationClient.describeChangeSet(new DescribeChangeSetRequest().withChangeSetName("change-set-id").withNextToken("token")))
+                .thenReturn(new DescribeChangeSetResult()
+                        .withStatus(ChangeSetStatus.CREATE_COMPLETE)
+                        .withChanges(new Change().withResourceChange(new ResourceChange().withLogicalResourceId("second"))));
+
+        Optional<List<Change>> changes = cloudFormationService.waitForChangeSet("change-set-id");
+
+        assertTrue(changes.isPresent());
+        assertEquals(2, changes.get().size());
+        assertEquals("second", changes.get().get(1).getResourceChange().getLogicalResourceId());
+    }
+
+    @Test
+    public void test_that_a_change_set_without_changes_is_deleted() {
+        when(cloudFormationClient.describeChangeSet(any(DescribeChangeSetRequest.class)))
+                .thenReturn(new DescribeChangeSetResult()
+                        .withStatus(ChangeSetStatus.FAILED)
+                        .withStatusReason("The submitted information didn't contain changes. Submit different information to create a change set."));
+
+        assertFalse(cloudFormationService.waitForChangeSet("change-set-id").isPresent());
+        verify(cloudFormationClient).deleteChangeSet(new DeleteChangeSetRequest().withChangeSetName("change-set-id"));
+    }
+
+    private void mockStack(StackStatus status, String outputValue) {
+        when(cloudFormationClient.describeStacks(new DescribeStacksRequest().withStackName(STACK_ID))).thenReturn(
+                new DescribeStacksResult().withStacks(new Stack()
+                        .withStackId(STACK_ID)
+                        .withStackStatus(status)
+                        .withParameters(new Parameter().withParameterKey("parameter").withParameterValue("parameter-value"))
+                        .withOutputs(new Output().withOutputKey("output").withOutputValue(outputValue))));
+    }
+}
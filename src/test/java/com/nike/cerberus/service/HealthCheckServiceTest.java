@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.service;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.Proxy;
+
+import static org.junit.Assert.assertEquals;
+
+public class HealthCheckServiceTest {
+
+    private HealthCheckService healthCheckService;
+
+    @Before
+    public void setup() {
+        healthCheckService = new HealthCheckService(Proxy.NO_PROXY);
+    }
+
+    @Test
+    public void test_that_latency_percentiles_are_zero_without_responses() {
+        assertEquals(0, healthCheckService.getLatencyPercentile(50));
+    }
+
+    @Test
+    public void test_that_latency_percentiles_use_the_nearest_rank() {
+        for (int latency = 100; latency >= 1; latency--) {
+            healthCheckService.recordLatency(latency);
+        }
+
+        assertEquals(1, healthCheckService.getLatencyPercentile(0));
+        assertEquals(50, healthCheckService.getLatencyPercentile(50));
+        assertEquals(90, healthCheckService.getLatencyPercentile(90));
+        assertEquals(99, healthCheckService.getLatencyPercentile(99));
+        assertEquals(100, healthCheckService.getLatencyPercentile(100));
+    }
+
+    @Test
+    public void test_that_latency_percentiles_only_use_recent_responses() {
+        for (int i = 0; i < 1000; i++) {
+            healthCheckService.recordLatency(1000);
+        }
+        for (int i = 0; i < 1000; i++) {
+            healthCheckService.recordLatency(10);
+        }
+
+        assertEquals(10, healthCheckService.getLatencyPercentile(99));
+    }
+
+    @Test
+    public void test_that_unreachable_health_checks_fail() {
+        assertEquals(HealthCheckService.HEALTH_CHECK_FAILED_CODE,
+                (int) healthCheckService.check("http://127.0.0.1:1/healthcheck").join());
+    }
+}
@@ -18,30 +18,46 @@ package com.nike.cerberus.service;
 
 import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.Headers;
 import com.amazonaws.services.s3.model.DeleteObjectsRequest;
 import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException;
 import com.amazonaws.services.s3.model.ObjectListing;
 import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
 import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectInputStream;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import org.apache.commons.io.IOUtils;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -103,6 +119,123 @@ public class S3StoreServiceTest {
         assertEquals(S3_PREFIX + "/" + path, request.getValue().getKey());
     }
 
+    @Test
+    public void testGetBytes() {
+        AmazonS3 client = mock(AmazonS3.class);
+        S3StoreService service = new S3StoreService(client, S3_BUCKET, S3_PREFIX);
+
+        String path = "path";
+        byte[] value = new byte[] {0x1f, (byte) 0x8b, 0x00, 0x7f};
+
+        ArgumentCaptor<GetObjectRequest> request = ArgumentCaptor.forClass(GetObjectRequest.class);
+
+        S3Object s3Object = new S3Object();
+        s3Object.setObjectContent(new S3ObjectInputStream(new ByteArrayInputStream(value), mock(HttpRequestBase.class)));
+
+        when(client.getObject(request.capture())).thenReturn(s3Object);
+
+        // invoke method under test
+        Optional<byte[]> result = service.getBytes(path);
+
+        assertTrue(result.isPresent());
+        assertArrayEquals(value, result.get());
+
+        assertEquals(S3_BUCKET, request.getValue().getBucketName());
+        assertEquals(S3_PREFIX + "/" + path, request.getValue().getKey());
+    }
+
+    @Test
+    public void testGetBytesRange() {
+        AmazonS3 client = mock(AmazonS3.class);
+        S3StoreService service = new S3StoreService(client, S3_BUCKET, S3_PREFIX);
+
+        ArgumentCaptor<GetObjectRequest> request = ArgumentCaptor.forClass(GetObjectRequest.class);
+
+        S3Object s3Object = new S3Object();
+        s3Object.setObjectContent(new S3ObjectInputStream(IOUtils.toInputStream("value"), mock(HttpRequestBase.class)));
+
+        when(client.getObject(request.capture())).thenReturn(s3Object);
+
+        // invoke method under test
+        Optional<byte[]> result = service.getBytes("path", 10, 14);
+
+        assertTrue(result.isPresent());
+        assertEquals(S3_PREFIX + "/path", request.getValue().getKey());
+        assertArrayEquals(new long[] {10, 14}, request.getValue().getRange());
+    }
+
+    @Test
+    public void testGetIfChanged() {
+        AmazonS3 client = mock(AmazonS3.class);
+        S3StoreService service = new S3StoreService(client, S3_BUCKET, S3_PREFIX);
+
+        ArgumentCaptor<GetObjectRequest> request = ArgumentCaptor.forClass(GetObjectRequest.class);
+
+        S3Object s3Object = new S3Object();
+        s3Object.setObjectContent(new S3ObjectInputStream(IOUtils.toInputStream("value"), mock(HttpRequestBase.class)));
+        s3Object.getObjectMetadata().setHeader(Headers.ETAG, "etag-1");
+
+        // the client returns null when the ETag constraint is not met
+        when(client.getObject(request.capture())).thenReturn(s3Object).thenReturn(null);
+
+        // invoke method under test
+        Optional<VersionedContent> first = service.getIfChanged("path", null);
+        Optional<VersionedContent> second = service.getIfChanged("path", first.get());
+
+        assertEquals("value", first.get().getContent());
+        assertEquals("etag-1", first.get().getETag());
+        assertSame(first.get(), second.get());
+
+        assertTrue(request.getAllValues().get(0).getNonmatchingETagConstraints().isEmpty());
+        assertEquals(Lists.newArrayList("etag-1"), request.getAllValues().get(1).getNonmatchingETagConstraints());
+    }
+
+    @Test
+    public void testPutIfUnchanged() {
+        AmazonS3 client = mock(AmazonS3.class);
+        S3StoreService service = new S3StoreService(client, S3_BUCKET, S3_PREFIX);
+
+        ArgumentCaptor<PutObjectRequest> request = ArgumentCaptor.forClass(PutObjectRequest.class);
+        PutObjectResult result = new PutObjectResult();
+        result.setETag("etag-2");
+        when(client.putObject(request.capture())).thenReturn(result);
+
+        // invoke method under test
+        VersionedContent stored = service.putIfUnchanged("path", "value", new VersionedContent("old", "etag-1"));
+
+        assertEquals("value", stored.getContent());
+        assertEquals("etag-2", stored.getETag());
+        assertEquals(S3_PREFIX + "/path", request.getValue().getKey());
+        assertEquals("etag-1", request.getValue().getCustomRequestHeaders().get("If-Match"));
+    }
+
+    @Test
+    public void testPutIfUnchangedCreatesOnlyIfMissing() {
+        AmazonS3 client = mock(AmazonS3.class);
+        S3StoreService service = new S3StoreService(client, S3_BUCKET, S3_PREFIX);
+
+        ArgumentCaptor<PutObjectRequest> request = ArgumentCaptor.forClass(PutObjectRequest.class);
+        when(client.putObject(request.capture())).thenReturn(new PutObjectResult());
+
+        // invoke method under test
+        service.putIfUnchanged("path", "value", null);
+
+        assertEquals("*", request.getValue().getCustomRequestHeaders().get("If-None-Match"));
+    }
+
+    @Test(expected = ConcurrentUpdateException.class)
+    public void testPutIfUnchangedConflict() {
+        AmazonS3 client = mock(AmazonS3.class);
+        S3StoreService service = new S3StoreService(client, S3_BUCKET, S3_PREFIX);
+
+        AmazonServiceException error = new AmazonServiceException("fake precondition failed");
+        error.setStatusCode(412);
+        when(client.putObject(any(PutObjectRequest.class))).thenThrow(error);
+
+        // invoke method under test
+        service.putIfUnchanged("path", "value", new VersionedContent("old", "etag-1"));
+    }
+
     @Test
     public void testGetNoSuchKey() {
         AmazonS3 client = mock(AmazonS3.class);
@@ -181,7 +314,7 @@ public class S3StoreServiceTest {
         String key = "my-key";
 
         S3ObjectSummary summary = new S3ObjectSummary();
-        summary.setKey(S3_PREFIX + key);
+        summary.setKey(S3_PREFIX + "/" + key);
 
         ObjectListing listing = mock(ObjectListing.class);
 
@@ -195,6 +328,21 @@ public class S3StoreServiceTest {
         assertEquals(key, results.iterator().next());
     }
 
+    @Test
+    public void testGetKeysInPartialPathOnlyRemovesThePrefix() {
+        AmazonS3 client = mock(AmazonS3.class);
+        S3StoreService service = new S3StoreService(client, S3_BUCKET, S3_PREFIX);
+
+        // every leading character of these keys is also a character of the prefix
+        ObjectListing listing = mockListing(false, S3_PREFIX + "/fake-key", S3_PREFIX + "/prefix/a-key");
+        when(client.listObjects(S3_BUCKET, S3_PREFIX + "/")).thenReturn(listing);
+
+        // invoke method under test
+        Set<String> results = service.getKeysInPartialPath("");
+
+        assertEquals(Sets.newHashSet("fake-key", "prefix/a-key"), results);
+    }
+
     @Test
     public void testDeleteAllKeysOnPartialPath() {
         AmazonS3 client = mock(AmazonS3.class);
@@ -236,4 +384,178 @@ public class S3StoreServiceTest {
         verify(client).listObjects(S3_BUCKET, path);
         verifyNoMoreInteractions(client);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testGetKeysInPartialPathFollowsTruncatedListings() {
+        AmazonS3 client = mock(AmazonS3.class);
+        S3StoreService service = new S3StoreService(client, S3_BUCKET, "");
+
+        ObjectListing firstPage = mockListing(true, "key-1", "key-2");
+        ObjectListing secondPage = mockListing(false, "key-3");
+        when(client.listObjects(S3_BUCKET, "path")).thenReturn(firstPage);
+        when(client.listNextBatchOfObjects(firstPage)).thenReturn(secondPage);
+
+        // invoke method under test
+        Set<String> results = service.getKeysInPartialPath("path");
+
+        assertEquals(Sets.newHashSet("key-1", "key-2", "key-3"), results);
+        verify(client, never()).listNextBatchOfObjects(secondPage);
+    }
+
+    @Test
+    public void testStreamKeysInPartialPathIsLazy() {
+        AmazonS3 client = mock(AmazonS3.class);
+        S3StoreService service = new S3StoreService(client, S3_BUCKET, "");
+
+        ObjectListing listing = mockListing(false, "key-1");
+        when(client.listObjects(S3_BUCKET, "path")).thenReturn(listing);
+
+        // invoke method under test
+        Stream<String> keys = service.streamKeysInPartialPath("path");
+
+        verifyNoMoreInteractions(client);
+        assertEquals(Lists.newArrayList("key-1"), keys.collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testDeleteAllKeysOnPartialPathDeletesEveryPage() {
+        AmazonS3 client = mock(AmazonS3.class);
+        S3StoreService service = new S3StoreService(client, S3_BUCKET, "");
+
+        ObjectListing firstPage = mockListing(true, "key-1", "key-2");
+        ObjectListing secondPage = mockListing(false, "key-3");
+        when(client.listObjects(S3_BUCKET, "path")).thenReturn(firstPage);
+        when(client.listNextBatchOfObjects(firstPage)).thenReturn(secondPage);
+
+        // invoke method under test
+        service.deleteAllKeysOnPartialPath("path");
+
+        ArgumentCaptor<DeleteObjectsRequest> request = ArgumentCaptor.forClass(DeleteObjectsRequest.class);
+        verify(client, times(1)).deleteObjects(request.capture());
+
+        assertEquals(Lists.newArrayList("key-1", "key-2", "key-3"), request.getValue().getKeys().stream()
+                .map(DeleteObjectsRequest.KeyVersion::getKey)
+                .collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testDeleteAllKeysOnPartialPathSendsBatchesOfAtMostOneThousandKeys() {
+        AmazonS3 client = mock(AmazonS3.class);
+        S3StoreService service = new S3StoreService(client, S3_BUCKET, "");
+
+        ObjectListing firstPage = mockListing(true, keys(0, 1000));
+        ObjectListing secondPage = mockListing(false, keys(1000, 2500));
+        when(client.listObjects(S3_BUCKET, "path")).thenReturn(firstPage);
+        when(client.listNextBatchOfObjects(firstPage)).thenReturn(secondPage);
+
+        // invoke method under test
+        service.deleteAllKeysOnPartialPath("path");
+
+        ArgumentCaptor<DeleteObjectsRequest> request = ArgumentCaptor.forClass(DeleteObjectsRequest.class);
+        verify(client, times(3)).deleteObjects(request.capture());
+
+        Set<String> deletedKeys = Sets.newHashSet();
+        request.getAllValues().forEach(deleteRequest -> {
+            assertTrue(deleteRequest.getKeys().size() <= 1000);
+            deleteRequest.getKeys().forEach(keyVersion -> deletedKeys.add(keyVersion.getKey()));
+        });
+        assertEquals(Sets.newHashSet(keys(0, 2500)), deletedKeys);
+    }
+
+    @Test
+    public void testDeleteAllKeysOnPartialPathRetriesKeysThatFailedToDelete() {
+        AmazonS3 client = mock(AmazonS3.class);
+        S3StoreService service = new S3StoreService(client, S3_BUCKET, "");
+
+        ObjectListing listing = mockListing(false, "key-1", "key-2", "key-3");
+        when(client.listObjects(S3_BUCKET, "path")).thenReturn(listing);
+
+        List<List<String>> requestedKeys = new LinkedList<>();
+        when(client.deleteObjects(any(DeleteObjectsRequest.class))).thenAnswer(invocation -> {
+            DeleteObjectsRequest deleteRequest = (DeleteObjectsRequest) invocation.getArguments()[0];
+            requestedKeys.add(deleteRequest.getKeys().stream()
+                    .map(DeleteObjectsRequest.KeyVersion::getKey)
+                    .collect(Collectors.toList()));
+            if (requestedKeys.size() == 1) {
+                throw deleteError("key-2");
+            }
+            return null;
+        });
+
+        // invoke method under test
+        service.deleteAllKeysOnPartialPath("path");
+
+        assertEquals(Lists.newArrayList(
+                Lists.newArrayList("key-1", "key-2", "key-3"),
+                Lists.newArrayList("key-2")), requestedKeys);
+    }
+
+    @Test
+    public void testDeleteAllKeysOnPartialPathFailsAfterRetries() {
+        AmazonS3 client = mock(AmazonS3.class);
+        S3StoreService service = new S3StoreService(client, S3_BUCKET, "");
+
+        ObjectListing listing = mockListing(false, "key-1", "key-2");
+        when(client.listObjects(S3_BUCKET, "path")).thenReturn(listing);
+        when(client.deleteObjects(any(DeleteObjectsRequest.class))).thenThrow(deleteError("key-2"));
+
+        try {
+            // invoke method under test
+            service.deleteAllKeysOnPartialPath("path");
+            fail("expected exception not thrown");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("key-2"));
+        }
+        verify(client, times(3)).deleteObjects(any(DeleteObjectsRequest.class));
+    }
+
+    private MultiObjectDeleteException deleteError(String key) {
+        MultiObjectDeleteException.DeleteError error = new MultiObjectDeleteException.DeleteError();
+        error.setKey(key);
+        error.setCode("InternalError");
+        error.setMessage("We encountered an internal error. Please try again.");
+        return new MultiObjectDeleteException(Lists.newArrayList(error), Lists.newArrayList());
+    }
+
+    private String[] keys(int from, int to) {
+        return IntStream.range(from, to).mapToObj(i -> "key-" + i).toArray(String[]::new);
+    }
+
+    @Test
+    public void testListFoldersUnderPartialPathListsCommonPrefixesAPageAtATime() {
+        AmazonS3 client = mock(AmazonS3.class);
+        S3StoreService service = new S3StoreService(client, S3_BUCKET, S3_PREFIX);
+
+        ObjectListing firstPage = mock(ObjectListing.class);
+        when(firstPage.isTruncated()).thenReturn(true);
+        when(firstPage.getCommonPrefixes()).thenReturn(Lists.newArrayList(
+                S3_PREFIX + "/backup-1/", S3_PREFIX + "/backup-2/"));
+        ObjectListing secondPage = mock(ObjectListing.class);
+        when(secondPage.getCommonPrefixes()).thenReturn(Lists.newArrayList(S3_PREFIX + "/backup-3/"));
+        when(client.listObjects(any(ListObjectsRequest.class))).thenReturn(firstPage);
+        when(client.listNextBatchOfObjects(firstPage)).thenReturn(secondPage);
+
+        // invoke method under test
+        Set<String> results = service.listFoldersUnderPartialPath("");
+
+        assertEquals(Sets.newHashSet("backup-1", "backup-2", "backup-3"), results);
+
+        ArgumentCaptor<ListObjectsRequest> request = ArgumentCaptor.forClass(ListObjectsRequest.class);
+        verify(client).listObjects(request.capture());
+        assertEquals(S3_BUCKET, request.getValue().getBucketName());
+        assertEquals(S3_PREFIX + "/", request.getValue().getPrefix());
+        assertEquals("/", request.getValue().getDelimiter());
+        verify(client, never()).listObjects(S3_BUCKET, S3_PREFIX + "/");
+    }
+
+    private ObjectListing mockListing(boolean truncated, String... keys) {
+        ObjectListing listing = mock(ObjectListing.class);
+        when(listing.isTruncated()).thenReturn(truncated);
+        when(listing.getObjectSummaries()).thenReturn(Arrays.stream(keys).map(key -> {
+            S3ObjectSummary summary = new S3ObjectSummary();
+            summary.setKey(key);
+            return summary;
+        }).collect(Collectors.toList()));
+        return listing;
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.store;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.securitytoken.AWSSecurityTokenService;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nike.cerberus.ConfigConstants;
+import com.nike.cerberus.domain.EnvironmentMetadata;
+import com.nike.cerberus.domain.environment.Environment;
+import com.nike.cerberus.domain.environment.Secrets;
+import com.nike.cerberus.domain.environment.StackName;
+import com.nike.cerberus.module.CerberusModule;
+import com.nike.cerberus.service.CloudFormationService;
+import com.nike.cerberus.service.ConcurrentUpdateException;
+import com.nike.cerberus.service.IdentityManagementService;
+import com.nike.cerberus.service.S3StoreService;
+import com.nike.cerberus.service.VersionedContent;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ConfigStoreTest {
+
+    private static final String ENV_DATA_FILE = ConfigConstants.ENV_DATA_FILE;
+
+    private static final String SECRETS_DATA_FILE = ConfigConstants.SECRETS_DATA_FILE;
+
+    private final ObjectMapper objectMapper = CerberusModule.configObjectMapper();
+
+    private AmazonS3 s3Client;
+
+    private S3StoreService configStoreService;
+
+    private S3StoreService encryptedConfigStoreService;
+
+    private ConfigStore configStore;
+
+    @Before
+    public void setup() {
+        s3Client = mock(AmazonS3.class);
+        configStoreService = mock(S3StoreService.class);
+        encryptedConfigStoreService = mock(S3StoreService.class);
+
+        EnvironmentMetadata environmentMetadata = new EnvironmentMetadata("test", "us-west-2");
+        environmentMetadata.setBucketName("config-bucket");
+        configStore = spy(new ConfigStore(s3Client,
+                mock(CloudFormationService.class),
+                mock(IdentityManagementService.class),
+                mock(AWSSecurityTokenService.class),
+                environmentMetadata,
+                objectMapper,
+                new ObjectMapper()));
+        doReturn(configStoreService).when(configStore).createConfigStoreService();
+        doReturn(encryptedConfigStoreService).when(configStore).createEncryptedConfigStoreService("config-key-id");
+    }
+
+    @Test
+    public void test_that_the_cached_environment_data_is_reused_until_it_changes() throws IOException {
+        VersionedContent first = environment("etag-1", withStack(new Environment(), StackName.BASE, "base-1"));
+        VersionedContent second = environment("etag-2", withStack(new Environment(), StackName.BASE, "base-2"));
+        when(configStoreService.getIfChanged(ENV_DATA_FILE, null)).thenReturn(Optional.of(first));
+        // not modified, then changed
+        when(configStoreService.getIfChanged(ENV_DATA_FILE, first)).thenReturn(Optional.of(first), Optional.of(second));
+        when(configStoreService.getIfChanged(ENV_DATA_FILE, second)).thenReturn(Optional.of(second));
+
+        assertEquals("base-1", configStore.getStackId(StackName.BASE));
+        assertEquals("base-1", configStore.getStackId(StackName.BASE));
+        assertEquals("base-2", configStore.getStackId(StackName.BASE));
+        assertEquals("base-2", configStore.getStackId(StackName.BASE));
+
+        verify(configStoreService, times(1)).getIfChanged(ENV_DATA_FILE, null);
+        verify(configStoreService, times(2)).getIfChanged(eq(ENV_DATA_FILE), same(first));
+        verify(configStoreService, times(1)).getIfChanged(eq(ENV_DATA_FILE), same(second));
+    }
+
+    @Test
+    public void test_that_the_written_environment_data_replaces_the_cached_copy() throws IOException {
+        VersionedContent read = environment("etag-1", new Environment());
+        VersionedContent written = environment("etag-2", withStack(new Environment(), StackName.BASE, "base-id"));
+        when(configStoreService.getIfChanged(ENV_DATA_FILE, null)).thenReturn(Optional.of(read));
+        when(configStoreService.putIfUnchanged(eq(ENV_DATA_FILE), anyString(), same(read))).thenReturn(written);
+        when(configStoreService.getIfChanged(ENV_DATA_FILE, written)).thenReturn(Optional.of(written));
+
+        configStore.storeStackId(StackName.BASE, "base-id");
+
+        assertEquals("base-id", configStore.getStackId(StackName.BASE));
+        verify(configStoreService, times(1)).getIfChanged(eq(ENV_DATA_FILE), same(written));
+        verify(configStoreService, never()).getIfChanged(eq(ENV_DATA_FILE), same(read));
+    }
+
+    @Test
+    public void test_that_a_concurrent_update_is_applied_again_to_the_latest_environment_data() throws IOException {
+        VersionedContent stale = environment("etag-1", withStack(new Environment(), StackName.BASE, "base-id"));
+        Environment latestEnvironment = withStack(new Environment(), StackName.BASE, "base-id");
+        latestEnvironment.getStackMap().put(StackName.CONSUL, "consul-id");
+        VersionedContent latest = environment("etag-2", latestEnvironment);
+        when(configStoreService.getIfChanged(ENV_DATA_FILE, null)).thenReturn(Optional.of(stale));
+        when(configStoreService.getIfChanged(ENV_DATA_FILE, stale)).thenReturn(Optional.of(latest));
+        when(configStoreService.putIfUnchanged(eq(ENV_DATA_FILE), anyString(), same(stale)))
+                .thenThrow(new ConcurrentUpdateException("precondition failed", null));
+        when(configStoreService.putIfUnchanged(eq(ENV_DATA_FILE), anyString(), same(latest)))
+                .thenReturn(new VersionedContent("{}", "etag-3"));
+
+        configStore.storeStackId(StackName.VAULT, "vault-id");
+
+        ArgumentCaptor<String> json = ArgumentCaptor.forClass(String.class);
+        verify(configStoreService).putIfUnchanged(eq(ENV_DATA_FILE), json.capture(), same(latest));
+        Environment written = objectMapper.readValue(json.getValue(), Environment.class);
+        assertEquals("base-id", written.getStackMap().get(StackName.BASE));
+        assertEquals("consul-id", written.getStackMap().get(StackName.CONSUL));
+        assertEquals("vault-id", written.getStackMap().get(StackName.VAULT));
+    }
+
+    @Test
+    public void test_that_an_update_gives_up_after_three_attempts() throws IOException {
+        VersionedContent current = environment("etag-1", new Environment());
+        when(configStoreService.getIfChanged(eq(ENV_DATA_FILE), any(VersionedContent.class)))
+                .thenReturn(Optional.of(current));
+        ConcurrentUpdateException concurrentUpdate = new ConcurrentUpdateException("precondition failed", null);
+        when(configStoreService.putIfUnchanged(eq(ENV_DATA_FILE), anyString(), any(VersionedContent.class)))
+                .thenThrow(concurrentUpdate);
+
+        try {
+            configStore.storeStackId(StackName.BASE, "base-id");
+            fail("expected the update to give up");
+        } catch (ConcurrentUpdateException e) {
+            assertSame(concurrentUpdate, e);
+        }
+
+        verify(configStoreService, times(3)).putIfUnchanged(eq(ENV_DATA_FILE), anyString(), any(VersionedContent.class));
+    }
+
+    @Test
+    public void test_that_a_concurrent_update_is_applied_again_to_the_latest_secrets_data() throws IOException {
+        VersionedContent environment = environment("etag-1", new Environment().setConfigKeyId("config-key-id"));
+        when(configStoreService.getIfChanged(ENV_DATA_FILE, null)).thenReturn(Optional.of(environment));
+        when(configStoreService.getIfChanged(ENV_DATA_FILE, environment)).thenReturn(Optional.of(environment));
+
+        Secrets latestSecrets = new Secrets();
+        latestSecrets.getCms().setDatabasePassword("db-password");
+        VersionedContent stale = secrets("etag-1", new Secrets());
+        VersionedContent latest = secrets("etag-2", latestSecrets);
+        when(encryptedConfigStoreService.getIfChanged(SECRETS_DATA_FILE, null)).thenReturn(Optional.of(stale));
+        when(encryptedConfigStoreService.getIfChanged(SECRETS_DATA_FILE, stale)).thenReturn(Optional.of(latest));
+        when(encryptedConfigStoreService.putIfUnchanged(eq(SECRETS_DATA_FILE), anyString(), same(stale)))
+                .thenThrow(new ConcurrentUpdateException("precondition failed", null));
+        when(encryptedConfigStoreService.putIfUnchanged(eq(SECRETS_DATA_FILE), anyString(), same(latest)))
+                .thenReturn(new VersionedContent("{}", "etag-3"));
+
+        configStore.storeVaultRootToken("root-token");
+
+        ArgumentCaptor<String> json = ArgumentCaptor.forClass(String.class);
+        verify(encryptedConfigStoreService).putIfUnchanged(eq(SECRETS_DATA_FILE), json.capture(), same(latest));
+        Secrets written = objectMapper.readValue(json.getValue(), Secrets.class);
+        assertEquals("db-password", written.getCms().getDatabasePassword());
+        assertEquals("root-token", written.getVault().getRootToken());
+    }
+
+    @Test
+    public void test_that_init_only_creates_the_environment_data_if_it_does_not_exist() {
+        doReturn(new S3StoreService(s3Client, "config-bucket", "")).when(configStore).createConfigStoreService();
+        AmazonServiceException noSuchKey = new AmazonServiceException("not found");
+        noSuchKey.setErrorCode("NoSuchKey");
+        when(s3Client.getObject(any(GetObjectRequest.class))).thenThrow(noSuchKey);
+        PutObjectResult putObjectResult = new PutObjectResult();
+        putObjectResult.setETag("etag-1");
+        when(s3Client.putObject(any(PutObjectRequest.class))).thenReturn(putObjectResult);
+
+        configStore.initEnvironmentData();
+
+        ArgumentCaptor<PutObjectRequest> request = ArgumentCaptor.forClass(PutObjectRequest.class);
+        verify(s3Client).putObject(request.capture());
+        assertEquals(ENV_DATA_FILE, request.getValue().getKey());
+        assertEquals("*", request.getValue().getCustomRequestHeaders().get("If-None-Match"));
+    }
+
+    @Test
+    public void test_that_the_azs_and_config_key_id_can_only_be_stored_once() throws IOException {
+        VersionedContent current = environment("etag-1",
+                new Environment().setAz1("us-west-2a").setConfigKeyId("config-key-id"));
+        when(configStoreService.getIfChanged(ENV_DATA_FILE, null)).thenReturn(Optional.of(current));
+        when(configStoreService.getIfChanged(ENV_DATA_FILE, current)).thenReturn(Optional.of(current));
+
+        try {
+            configStore.storeAzs("us-west-2b", "us-west-2c", "us-west-2a");
+            fail("expected the AZs to not be overwritten");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        try {
+            configStore.updateEnvironment(environment -> ConfigStore.storeConfigKeyId(environment, "other-key-id"));
+            fail("expected the config key id to not be overwritten");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        verify(configStoreService, never()).putIfUnchanged(anyString(), anyString(), any(VersionedContent.class));
+    }
+
+    private Environment withStack(Environment environment, StackName stackName, String stackId) {
+        environment.getStackMap().put(stackName, stackId);
+        return environment;
+    }
+
+    private VersionedContent environment(String eTag, Environment environment) throws JsonProcessingException {
+        return new VersionedContent(objectMapper.writeValueAsString(environment), eTag);
+    }
+
+    private VersionedContent secrets(String eTag, Secrets secrets) throws JsonProcessingException {
+        return new VersionedContent(objectMapper.writeValueAsString(secrets), eTag);
+    }
+}
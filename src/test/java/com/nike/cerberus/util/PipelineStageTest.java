@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.util;
+
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PipelineStageTest {
+
+    @Test
+    public void test_that_all_items_flow_through_every_stage() {
+        Set<String> results = ConcurrentHashMap.newKeySet();
+
+        PipelineStage<Integer, Integer> first = new PipelineStage<>("double", 3, 2, i -> i * 2);
+        PipelineStage<Integer, String> second = new PipelineStage<>("format", 2, 2, i -> "item-" + i);
+        PipelineStage<String, Void> third = new PipelineStage<>("collect", 1, 2, s -> {
+            results.add(s);
+            return null;
+        });
+        first.pipeTo(second).pipeTo(third);
+
+        first.start();
+        second.start();
+        third.start();
+        for (int i = 0; i < 100; i++) {
+            first.submit(i);
+        }
+        first.complete();
+        third.awaitCompletion();
+
+        assertEquals(100, results.size());
+        assertTrue(results.contains("item-198"));
+        assertEquals(100, first.getProcessedCount());
+        assertEquals(100, second.getProcessedCount());
+        assertEquals(100, third.getProcessedCount());
+    }
+
+    @Test
+    public void test_that_a_failure_in_a_stage_stops_the_pipeline() {
+        AtomicInteger collected = new AtomicInteger();
+
+        PipelineStage<Integer, Integer> first = new PipelineStage<>("fail", 1, 1, i -> {
+            if (i == 5) {
+                throw new IllegalStateException("fake expected exception");
+            }
+            return i;
+        });
+        PipelineStage<Integer, Void> second = new PipelineStage<>("collect", 1, 1, i -> {
+            collected.incrementAndGet();
+            return null;
+        });
+        first.pipeTo(second);
+
+        first.start();
+        second.start();
+        try {
+            for (int i = 0; i < 1000; i++) {
+                first.submit(i);
+            }
+            first.complete();
+            second.awaitCompletion();
+            fail("expected exception not thrown");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        } finally {
+            first.shutdownNow();
+            second.shutdownNow();
+        }
+
+        assertTrue(collected.get() < 1000);
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.vault;
+
+import com.google.common.collect.Lists;
+import com.nike.cerberus.domain.cloudformation.VaultOutputs;
+import com.nike.cerberus.service.AutoScalingService;
+import com.nike.cerberus.store.ConfigStore;
+import com.nike.vault.client.VaultAdminClient;
+import com.nike.vault.client.model.VaultHealthResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.Proxy;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class VaultAdminClientFactoryTest {
+
+    private static final String ROOT_TOKEN = "root-token";
+
+    private AutoScalingService autoScalingService;
+
+    private VaultAdminClientFactory vaultAdminClientFactory;
+
+    @Before
+    public void setup() {
+        autoScalingService = mock(AutoScalingService.class);
+        ConfigStore configStore = mock(ConfigStore.class);
+        VaultOutputs vaultOutputs = new VaultOutputs();
+        vaultOutputs.setAutoscalingGroupLogicalId("vault-asg");
+        when(configStore.getVaultRootToken()).thenReturn(ROOT_TOKEN);
+        when(configStore.getVaultStackOutputs()).thenReturn(vaultOutputs);
+
+        vaultAdminClientFactory = spy(new VaultAdminClientFactory(Proxy.NO_PROXY, autoScalingService, configStore));
+    }
+
+    @Test
+    public void test_that_the_leader_is_found_without_waiting_on_unreachable_instances() {
+        CountDownLatch unreachable = new CountDownLatch(1);
+        VaultAdminClient unreachableClient = mock(VaultAdminClient.class);
+        when(unreachableClient.health()).thenAnswer(invocation -> {
+            unreachable.await(10, TimeUnit.SECONDS);
+            throw new RuntimeException("connect timed out");
+        });
+        VaultAdminClient standbyClient = client(true, false, true);
+        VaultAdminClient leaderClient = client(true, false, false);
+        mockInstances("unreachable", unreachableClient, "standby", standbyClient, "leader", leaderClient);
+
+        try {
+            assertSame(leaderClient, vaultAdminClientFactory.getClientForLeader().get());
+        } finally {
+            unreachable.countDown();
+        }
+    }
+
+    @Test
+    public void test_that_the_leader_is_remembered() {
+        VaultAdminClient leaderClient = client(true, false, false);
+        mockInstances("standby", client(true, false, true), "leader", leaderClient, "sealed", client(true, true, false));
+
+        assertSame(leaderClient, vaultAdminClientFactory.getClientForLeader().get());
+        assertSame(leaderClient, vaultAdminClientFactory.getClientForLeader().get());
+
+        verify(leaderClient, times(1)).health();
+        verify(autoScalingService, times(1)).getPublicDnsForAutoScalingGroup("vault-asg");
+    }
+
+    @Test
+    public void test_that_there_is_no_leader_when_every_instance_is_sealed_or_failing() {
+        VaultAdminClient failingClient = mock(VaultAdminClient.class);
+        when(failingClient.health()).thenThrow(new RuntimeException("connection refused"));
+        mockInstances("sealed", client(true, true, false), "failing", failingClient, "uninitialized", client(false, false, false));
+
+        Optional<VaultAdminClient> leader = vaultAdminClientFactory.getClientForLeader();
+
+        assertFalse(leader.isPresent());
+    }
+
+    @Test
+    public void test_that_there_is_no_leader_without_instances() {
+        when(autoScalingService.getPublicDnsForAutoScalingGroup("vault-asg")).thenReturn(Lists.newArrayList());
+
+        assertFalse(vaultAdminClientFactory.getClientForLeader().isPresent());
+    }
+
+    @Test
+    public void test_that_the_instances_are_looked_up_once() {
+        mockInstances("standby", client(true, false, true), "leader", client(true, false, false));
+
+        assertTrue(vaultAdminClientFactory.hasVaultInstances());
+        assertEquals(2, vaultAdminClientFactory.getClientsForCluster().size());
+        assertTrue(vaultAdminClientFactory.getClientForLeader().isPresent());
+        assertEquals(2, vaultAdminClientFactory.getClientsForCluster().size());
+
+        verify(autoScalingService, times(1)).getPublicDnsForAutoScalingGroup("vault-asg");
+    }
+
+    @Test
+    public void test_that_refreshing_picks_up_replaced_instances_and_finds_the_leader_again() {
+        VaultAdminClient oldLeader = client(true, false, false);
+        mockInstances("standby", client(true, false, true), "old-leader", oldLeader);
+        assertSame(oldLeader, vaultAdminClientFactory.getClientForLeader().get());
+
+        VaultAdminClient newLeader = client(true, false, false);
+        mockInstances("standby", client(true, false, true), "new-leader", newLeader);
+        vaultAdminClientFactory.refreshInstances();
+
+        assertEquals(2, vaultAdminClientFactory.getClientsForCluster().size());
+        assertSame(newLeader, vaultAdminClientFactory.getClientForLeader().get());
+        verify(autoScalingService, times(2)).getPublicDnsForAutoScalingGroup("vault-asg");
+    }
+
+    @Test
+    public void test_that_refreshing_keeps_the_clients_of_the_remaining_instances() {
+        when(autoScalingService.getPublicDnsForAutoScalingGroup("vault-asg"))
+                .thenReturn(Lists.newArrayList("vault-1", "vault-2"), Lists.newArrayList("vault-1", "vault-3"));
+        List<VaultAdminClient> clients = vaultAdminClientFactory.getClientsForCluster();
+
+        vaultAdminClientFactory.refreshInstances();
+        List<VaultAdminClient> refreshedClients = vaultAdminClientFactory.getClientsForCluster();
+
+        assertSame(clients.get(0), refreshedClients.get(0));
+        assertNotSame(clients.get(1), refreshedClients.get(1));
+        assertNotSame(clients.get(1), vaultAdminClientFactory.getClient(ROOT_TOKEN, "vault-2"));
+    }
+
+    @Test
+    public void test_that_the_client_for_an_instance_is_reused() {
+        VaultAdminClient client = vaultAdminClientFactory.getClient(ROOT_TOKEN, "vault-1");
+
+        assertSame(client, vaultAdminClientFactory.getClient(ROOT_TOKEN, "vault-1"));
+        assertNotSame(client, vaultAdminClientFactory.getClient(ROOT_TOKEN, "vault-2"));
+        assertNotSame(client, vaultAdminClientFactory.getClient("", "vault-1"));
+    }
+
+    private void mockInstances(Object... hostnamesAndClients) {
+        List<String> hostnames = Lists.newArrayList();
+        for (int i = 0; i < hostnamesAndClients.length; i += 2) {
+            String hostname = (String) hostnamesAndClients[i];
+            hostnames.add(hostname);
+            doReturn(hostnamesAndClients[i + 1]).when(vaultAdminClientFactory).getClient(ROOT_TOKEN, hostname);
+        }
+        when(autoScalingService.getPublicDnsForAutoScalingGroup("vault-asg")).thenReturn(hostnames);
+    }
+
+    private VaultAdminClient client(boolean initialized, boolean sealed, boolean standby) {
+        VaultHealthResponse healthResponse = mock(VaultHealthResponse.class);
+        when(healthResponse.isInitialized()).thenReturn(initialized);
+        when(healthResponse.isSealed()).thenReturn(sealed);
+        when(healthResponse.isStandby()).thenReturn(standby);
+
+        VaultAdminClient client = mock(VaultAdminClient.class);
+        when(client.health()).thenReturn(healthResponse);
+        return client;
+    }
+}